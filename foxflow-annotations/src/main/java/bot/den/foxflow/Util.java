@@ -19,6 +19,22 @@ public class Util {
         return input.substring(0, 1).toUpperCase() + input.substring(1);
     }
 
+    /**
+     * @param input A camelCase name
+     * @return The input as an UPPER_SNAKE_CASE constant name
+     */
+    public static String constantCase(String input) {
+        return input.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase();
+    }
+
+    /**
+     * @param field A field of an enum-only record
+     * @return The name of the constant on the data interface that the field's ordinal is multiplied by when packing
+     */
+    public static String packedMultiplierName(String field) {
+        return "PACKED_" + constantCase(field) + "_MULTIPLIER";
+    }
+
     /**
      * To hide implementation details on inner classes, we put them all in a sub-package of the original state class.
      * This ensures that an end-user of our State Machine can only reliably interact with the state machine, but not
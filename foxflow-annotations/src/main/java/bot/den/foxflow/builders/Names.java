@@ -6,6 +6,12 @@ import bot.den.foxflow.validator.EnumValidator;
 import bot.den.foxflow.validator.RecordValidator;
 import bot.den.foxflow.validator.Validator;
 import com.palantir.javapoet.ClassName;
+import com.palantir.javapoet.CodeBlock;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 
 public record Names(
         Validator validator,
@@ -45,6 +51,28 @@ public record Names(
         );
     }
 
+    /**
+     * An empty map keyed by our data type. Enums get an EnumMap so lookups index an array by ordinal instead of hashing.
+     */
+    public CodeBlock newDataMap() {
+        if (validator instanceof EnumValidator) {
+            return CodeBlock.of("new $T<>($T.class)", EnumMap.class, dataTypeName);
+        }
+
+        return CodeBlock.of("new $T<>()", HashMap.class);
+    }
+
+    /**
+     * An empty set of our data type. Enums get an EnumSet which is backed by a bit vector of ordinals.
+     */
+    public CodeBlock newDataSet() {
+        if (validator instanceof EnumValidator) {
+            return CodeBlock.of("$T.noneOf($T.class)", EnumSet.class, dataTypeName);
+        }
+
+        return CodeBlock.of("new $T<>()", HashSet.class);
+    }
+
     private static ClassName dataTypeName(Validator validator) {
         if (validator instanceof EnumValidator) {
             return validator.originalTypeName();
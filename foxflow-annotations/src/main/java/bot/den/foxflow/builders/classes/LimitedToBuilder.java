@@ -81,6 +81,14 @@ public class LimitedToBuilder implements TypedBuilder<TypeSpec> {
                 .addStatement("this.manager.run(this.fromState, this.toState, command)")
                 .build()
         );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("runImmediately")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(Runnable.class, "action")
+                .addStatement("this.manager.runImmediately(this.fromState, this.toState, action)")
+                .build()
+        );
     }
 
     private void addFailLoudlyMethod() {
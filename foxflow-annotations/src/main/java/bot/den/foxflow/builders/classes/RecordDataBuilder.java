@@ -8,7 +8,6 @@ import bot.den.foxflow.builders.TypedBuilder;
 import bot.den.foxflow.exceptions.InvalidStateTransition;
 import bot.den.foxflow.validator.RecordValidator;
 import com.palantir.javapoet.*;
-import edu.wpi.first.math.Pair;
 import edu.wpi.first.units.measure.Time;
 
 import javax.lang.model.element.Modifier;
@@ -19,9 +18,6 @@ public class RecordDataBuilder implements TypedBuilder<TypeSpec> {
     private final RecordValidator validator;
     private final ClassName allFieldsPresentDataClass;
 
-    private final boolean needsRemoveNulls;
-    private final Map<ClassName, List<ClassName>> removeNullsMap = new HashMap<>();
-
     public RecordDataBuilder(
             RecordValidator validator
     ) {
@@ -31,11 +27,8 @@ public class RecordDataBuilder implements TypedBuilder<TypeSpec> {
                 .addModifiers(Modifier.PUBLIC)
                 .addAnnotation(Generated.class);
 
-        allFieldsPresentDataClass = validator.fieldToInnerClass.get(validator.fields);
-        needsRemoveNulls = validator.innerClassToField.get(allFieldsPresentDataClass).size() > 1;
         // We need this in the toData / fromRecord methods
-
-        generateRemoveNullsMap();
+        allFieldsPresentDataClass = validator.fieldToInnerClass.get(validator.fields);
 
         addSuperinterface();
         addCanTransitionHelperMethods();
@@ -46,47 +39,13 @@ public class RecordDataBuilder implements TypedBuilder<TypeSpec> {
 
         addTransitionMethods();
         addNumElementsMethod();
+        addPackedStateMembers();
 
         addPairType();
         addTimeType();
         addNestedTypes();
     }
 
-    private void generateRemoveNullsMap() {
-        if (!needsRemoveNulls) {
-            return;
-        }
-
-        Queue<Pair<ClassName, Integer>> queue = new LinkedList<>();
-        queue.add(new Pair<>(allFieldsPresentDataClass, -1));
-
-        while (!queue.isEmpty()) {
-            var pair = queue.poll();
-            var subDataClass = pair.getFirst();
-            var lastRemovedIndex = pair.getSecond();
-
-            List<ClassName> children = new ArrayList<>();
-
-            for (int toRemoveIndex = lastRemovedIndex + 1; toRemoveIndex < validator.fields.size(); toRemoveIndex++) {
-                List<Field<ClassName>> fieldsWithRemovedElement = new ArrayList<>(validator.fields);
-                //noinspection SuspiciousListRemoveInLoop
-                fieldsWithRemovedElement.remove(toRemoveIndex);
-
-                List<Field<ClassName>> subDataFields = new ArrayList<>(validator.innerClassToField.get(subDataClass));
-                subDataFields.retainAll(fieldsWithRemovedElement);
-
-                var childSubData = validator.fieldToInnerClass.get(subDataFields);
-                children.add(childSubData);
-
-                if (subDataFields.size() > 1 && toRemoveIndex + 1 < validator.fields.size()) {
-                    queue.add(new Pair<>(childSubData, toRemoveIndex));
-                }
-            }
-
-            removeNullsMap.put(subDataClass, children);
-        }
-    }
-
     private void addSuperinterface() {
         ParameterizedTypeName limitsStateTransitions = ParameterizedTypeName
                 .get(
@@ -109,28 +68,22 @@ public class RecordDataBuilder implements TypedBuilder<TypeSpec> {
             }
             var entryName = field.name();
 
-            MethodSpec.Builder extractorMethodBuilder = MethodSpec
+            // Every inner record that has this field overrides this with its component accessor, so reading a field
+            // is a single virtual call no matter how many inner records there are
+            builder.addMethod(MethodSpec
+                    .methodBuilder(entryName)
+                    .addModifiers(Modifier.PUBLIC, Modifier.DEFAULT)
+                    .returns(dataTypeName)
+                    .addStatement("return null")
+                    .build());
+
+            builder.addMethod(MethodSpec
                     .methodBuilder("get" + Util.ucfirst(entryName))
                     .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
                     .returns(dataTypeName)
-                    .addParameter(validator.wrappedClassName(), "data");
-            for (var typesClassEntry : validator.fieldToInnerClass.entrySet()) {
-                var types = typesClassEntry.getKey();
-                if (!types.contains(field)) {
-                    continue;
-                }
-
-                var innerClassName = typesClassEntry.getValue();
-
-                extractorMethodBuilder.addStatement(
-                        "if (data instanceof $T s) return s." + entryName,
-                        innerClassName
-                );
-            }
-
-            extractorMethodBuilder.addStatement("return null");
-
-            builder.addMethod(extractorMethodBuilder.build());
+                    .addParameter(validator.wrappedClassName(), "data")
+                    .addStatement("return data.$L()", entryName)
+                    .build());
         }
     }
 
@@ -154,15 +107,48 @@ public class RecordDataBuilder implements TypedBuilder<TypeSpec> {
                 })
                 .toList();
 
-        MethodSpec fromRecordMethod = MethodSpec
+        var dataClass = validator.presenceMask ? validator.slotsClassName() : allFieldsPresentDataClass;
+        MethodSpec.Builder fromRecordMethod = MethodSpec
                 .methodBuilder("fromRecord")
                 .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
                 .addParameter(validator.originalTypeName(), "record")
-                .returns(validator.wrappedClassName())
-                .addStatement("return new $1T($2L)", allFieldsPresentDataClass, CodeBlock.join(arguments, ", "))
-                .build();
+                .returns(validator.wrappedClassName());
+
+        if (validator.packsStates) {
+            // There's a limited number of these, so every record converts to the same data instance each time
+            var flyweights = validator.wrappedClassName().nestedClass("Flyweights");
+
+            builder.addType(TypeSpec
+                    .classBuilder(flyweights)
+                    .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                    .addField(FieldSpec
+                            .builder(ArrayTypeName.of(validator.wrappedClassName()), "fromRecord")
+                            .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                            .initializer("new $T[(int) PACKED_STATE_COUNT]", validator.wrappedClassName())
+                            .build())
+                    .addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build())
+                    .build());
+
+            fromRecordMethod.addCode("""
+                            int packedState = (int) packRecord(record);
+                            var data = $1T.fromRecord[packedState];
+                            if(data == null) {
+                                data = new $2T($3L);
+                                $1T.fromRecord[packedState] = data;
+                            }
+                            
+                            return data;
+                            """,
+                    flyweights,
+                    dataClass,
+                    CodeBlock.join(arguments, ", "));
+        }
 
-        builder.addMethod(fromRecordMethod);
+        if (!validator.packsStates) {
+            fromRecordMethod.addStatement("return new $1T($2L)", dataClass, CodeBlock.join(arguments, ", "));
+        }
+
+        builder.addMethod(fromRecordMethod.build());
     }
 
     /**
@@ -192,7 +178,9 @@ public class RecordDataBuilder implements TypedBuilder<TypeSpec> {
                 .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
                 .addParameter(validator.wrappedClassName(), "data")
                 .returns(validator.originalTypeName())
-                .beginControlFlow("if (data instanceof $T castData)", allFieldsPresentDataClass)
+                .beginControlFlow("if ($L)", validator.presenceMask
+                        ? CodeBlock.of("data instanceof $T castData && castData.numElements() == $L", validator.slotsClassName(), validator.fields.size())
+                        : CodeBlock.of("data instanceof $T castData", allFieldsPresentDataClass))
                 .addStatement("return new $1T($2L)", validator.originalTypeName(), CodeBlock.join(arguments, ", "))
                 .endControlFlow()
                 .addStatement("throw new $1T(\"Should not have tried converting this class to a record, we don't have all the information required\")", RuntimeException.class)
@@ -201,6 +189,11 @@ public class RecordDataBuilder implements TypedBuilder<TypeSpec> {
         builder.addMethod(toRecordMethod);
     }
 
+    /**
+     * Packed records still merge field by field. Their packed number is mixed-radix, so a field isn't a fixed group of
+     * bits that could be masked, and partial data classes don't store a packed number to compare. The state machine
+     * caches the merge for each combination of transitions, so this mostly runs the first time a combination fires.
+     */
     private void addCanMergeMethod() {
         MethodSpec.Builder canMergeMethodBuilder = MethodSpec
                 .methodBuilder("canMerge")
@@ -225,31 +218,63 @@ public class RecordDataBuilder implements TypedBuilder<TypeSpec> {
     }
 
     private void addMergeMethod() {
-        {
-            MethodSpec mergeMethodBuilder = MethodSpec
-                    .methodBuilder("merge")
-                    .addModifiers(Modifier.PUBLIC, Modifier.DEFAULT)
-                    .addParameter(validator.wrappedClassName(), "data")
-                    .returns(validator.wrappedClassName())
-                    .addCode(CodeBlock.join(
-                            validator.fields.stream()
-                                    .map(f -> CodeBlock.of("var this_$1L = get$2L(this);\nvar data_$1L = get$2L(data);", f.name(), Util.ucfirst(f.name())))
-                                    .toList(),
-                            "\n"
-                    ))
-                    .addCode("""
-                                    \n
-                                    return $1L$2L;
-                                    """,
-                            validator.dataEmitter(allFieldsPresentDataClass)
-                                    .withConstructor()
-                                    .withTransform("this_%1$s == null ? data_%1$s : this_%1$s"::formatted)
-                                    .emit(),
-                            needsRemoveNulls ? ".removeNulls()" : ""
-                    ).build();
-
-            builder.addMethod(mergeMethodBuilder);
+        MethodSpec.Builder mergeMethodBuilder = MethodSpec
+                .methodBuilder("merge")
+                .addModifiers(Modifier.PUBLIC, Modifier.DEFAULT)
+                .addParameter(validator.wrappedClassName(), "data")
+                .returns(validator.wrappedClassName())
+                .addCode(CodeBlock.join(
+                        validator.fields.stream()
+                                .map(f -> CodeBlock.of("var this_$1L = get$2L(this);\nvar data_$1L = get$2L(data);", f.name(), Util.ucfirst(f.name())))
+                                .toList(),
+                        "\n"
+                ))
+                .addCode("\n\n");
+
+        // The slots class and single field records can hold any combination of fields
+        if (validator.presenceMask || validator.fields.size() == 1) {
+            builder.addMethod(mergeMethodBuilder
+                    .addStatement("return $L", validator.dataEmitter(allFieldsPresentDataClass)
+                            .withConstructor()
+                            .withTransform("this_%1$s == null ? data_%1$s : this_%1$s"::formatted)
+                            .emit())
+                    .build());
+            return;
         }
+
+        List<CodeBlock> presentChecks = new ArrayList<>();
+        for (int i = 0; i < validator.fields.size(); i++) {
+            var name = validator.fields.get(i).name();
+            mergeMethodBuilder.addStatement("var merged_$1L = this_$1L == null ? data_$1L : this_$1L", name);
+            presentChecks.add(CodeBlock.of("(merged_$1L == null ? 0 : $2L)", name, 1 << i));
+        }
+
+        // Work out which fields we have once, then build the class holding exactly those fields
+        mergeMethodBuilder
+                .addStatement("int presence = $L", CodeBlock.join(presentChecks, " | "))
+                .addCode("return switch (presence) {\n$>");
+
+        validator.fieldToInnerClass
+                .values()
+                .stream()
+                .filter(dataClass -> !dataClass.equals(allFieldsPresentDataClass))
+                .sorted(Comparator.comparingInt(validator::presenceMask))
+                .forEach(dataClass -> mergeMethodBuilder.addCode(
+                        "case $L -> $L;\n",
+                        validator.presenceMask(dataClass),
+                        validator.dataEmitter(dataClass)
+                                .withConstructor()
+                                .withTransform("merged_%s"::formatted)
+                                .emit()
+                ));
+
+        builder.addMethod(mergeMethodBuilder
+                .addCode("default -> $L;\n", validator.dataEmitter(allFieldsPresentDataClass)
+                        .withConstructor()
+                        .withTransform("merged_%s"::formatted)
+                        .emit())
+                .addCode("$<};\n")
+                .build());
     }
 
     private void addTransitionMethods() {
@@ -329,6 +354,46 @@ public class RecordDataBuilder implements TypedBuilder<TypeSpec> {
                 .build());
     }
 
+    /**
+     * A record that only holds enums has a fixed number of possible values, so every one of them can be numbered by
+     * treating each field's ordinal as a digit in a mixed-radix number. The state machine uses that number to index
+     * into arrays instead of hashing records. The count is worked out here, so records with too many states to fit in
+     * those arrays don't get any of this.
+     */
+    private void addPackedStateMembers() {
+        if (!validator.packsStates) {
+            return;
+        }
+
+        // Every multiplier is smaller than the state count, so none of these can overflow
+        long multiplier = 1;
+        List<CodeBlock> packedDigits = new ArrayList<>();
+        for (var field : validator.fields) {
+            String multiplierName = Util.packedMultiplierName(field.name());
+
+            builder.addField(FieldSpec
+                    .builder(long.class, multiplierName, Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$LL", multiplier)
+                    .build());
+
+            packedDigits.add(CodeBlock.of("record.$1L().ordinal() * $2L", field.name(), multiplierName));
+            multiplier *= validator.enumConstants.get(field.value()).size();
+        }
+
+        builder.addField(FieldSpec
+                .builder(long.class, "PACKED_STATE_COUNT", Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .initializer("$LL", validator.packedStateCount)
+                .build());
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("packRecord")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .addParameter(validator.originalTypeName(), "record")
+                .returns(long.class)
+                .addStatement("return $L", CodeBlock.join(packedDigits, " + "))
+                .build());
+    }
+
     private void addPairType() {
         MethodSpec dataConstructor = MethodSpec
                 .constructorBuilder()
@@ -358,13 +423,18 @@ public class RecordDataBuilder implements TypedBuilder<TypeSpec> {
     }
 
     private void addNestedTypes() {
+        if (validator.presenceMask) {
+            builder.addType(createSlotsClass());
+            return;
+        }
+
         for (var types : validator.fieldToInnerClass.keySet()) {
             ClassName nestedName = validator.fieldToInnerClass.get(types);
-            builder.addType(createInnerClass(nestedName, removeNullsMap));
+            builder.addType(createInnerClass(nestedName));
         }
     }
 
-    private TypeSpec createInnerClass(ClassName nestedName, Map<ClassName, List<ClassName>> removeNullsMap) {
+    private TypeSpec createInnerClass(ClassName nestedName) {
         MethodSpec.Builder recordConstructor = MethodSpec
                 .constructorBuilder();
 
@@ -397,35 +467,102 @@ public class RecordDataBuilder implements TypedBuilder<TypeSpec> {
                 .addSuperinterface(validator.wrappedClassName())
                 .addMethod(numElements);
 
-        if (removeNullsMap.containsKey(nestedName)) {
-            MethodSpec.Builder removeNullsMethod = MethodSpec
-                    .methodBuilder("removeNulls")
-                    .returns(validator.wrappedClassName());
+        addEqualsAndHashCode(innerClass, nestedName, types, validator.presenceMask(nestedName));
 
-            var removeNulls = removeNullsMap.get(nestedName);
-
-            for (ClassName childClass : removeNulls) {
-                var fieldDifference = new ArrayList<>(validator.innerClassToField.get(nestedName));
-                fieldDifference.removeAll(validator.innerClassToField.get(childClass));
+        return innerClass.build();
+    }
 
-                // Field difference only has one element now by definition of the parent/child relationship
-                var field = fieldDifference.get(0);
-                boolean needsRemoveNulls = removeNullsMap.containsKey(childClass);
+    /**
+     * A single class that stands in for every combination of fields, where a null field isn't present
+     */
+    private TypeSpec createSlotsClass() {
+        MethodSpec.Builder recordConstructor = MethodSpec
+                .constructorBuilder();
 
-                removeNullsMethod.addStatement(
-                        "if(this.$1L == null) return $2L$3L",
-                        field.name(),
-                        validator.dataEmitter(childClass).withConstructor().emit(),
-                        needsRemoveNulls ? ".removeNulls()" : ""
-                );
+        List<CodeBlock> presentChecks = new ArrayList<>();
+        for (int i = 0; i < validator.fields.size(); i++) {
+            var field = validator.fields.get(i);
+            var dataTypeName = field.value();
+            if (validator.nestedRecords.containsKey(dataTypeName)) {
+                dataTypeName = validator.nestedRecords.get(dataTypeName);
+            } else if (validator.nestedInterfaces.containsKey(dataTypeName)) {
+                dataTypeName = validator.nestedInterfaces.get(dataTypeName);
             }
 
-            removeNullsMethod.addStatement("return this");
+            recordConstructor.addParameter(dataTypeName, field.name());
+            presentChecks.add(CodeBlock.of("(this.$1L == null ? 0 : $2L)", field.name(), 1 << i));
+        }
 
-            innerClass.addMethod(removeNullsMethod.build());
+        MethodSpec presenceMask = MethodSpec
+                .methodBuilder("presenceMask")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(int.class)
+                .addStatement("return $L", CodeBlock.join(presentChecks, " | "))
+                .build();
+
+        MethodSpec numElements = MethodSpec
+                .methodBuilder("numElements")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(int.class)
+                .addStatement("return $T.bitCount(presenceMask())", Integer.class)
+                .build();
+
+        TypeSpec.Builder slotsClass = TypeSpec
+                .recordBuilder(validator.slotsClassName())
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .recordConstructor(recordConstructor.build())
+                .addSuperinterface(validator.wrappedClassName())
+                .addMethod(presenceMask)
+                .addMethod(numElements);
+
+        // Which fields are present is already part of the values, so there's nothing to seed the hash with
+        addEqualsAndHashCode(slotsClass, validator.slotsClassName(), validator.fields, 0);
+
+        return slotsClass.build();
+    }
+
+    /**
+     * These are used as keys in every hashed structure of the state machine. The default record implementations go
+     * through a generic bootstrap and call hashCode on every enum, so we hash the ordinals directly and compare enums by
+     * identity instead.
+     */
+    private void addEqualsAndHashCode(TypeSpec.Builder innerClass, ClassName className, List<Field<ClassName>> fields, int seed) {
+        CodeBlock.Builder hashCode = CodeBlock.builder()
+                .addStatement("int hash = $L", seed);
+
+        List<CodeBlock> comparisons = new ArrayList<>();
+        for (var field : fields) {
+            boolean isEnum = !validator.nestedRecords.containsKey(field.value()) && !validator.nestedInterfaces.containsKey(field.value());
+
+            if (isEnum) {
+                hashCode.addStatement("hash = hash * 31 + (this.$1L == null ? 0 : this.$1L.ordinal() + 1)", field.name());
+                comparisons.add(CodeBlock.of("this.$1L == other.$1L", field.name()));
+            } else {
+                hashCode.addStatement("hash = hash * 31 + $2T.hashCode(this.$1L)", field.name(), Objects.class);
+                comparisons.add(CodeBlock.of("$2T.equals(this.$1L, other.$1L)", field.name(), Objects.class));
+            }
         }
 
-        return innerClass.build();
+        // Small ordinal sums would all land in the first few buckets, so spread them over every bit
+        hashCode.addStatement("return hash * 0x9E3779B9");
+
+        innerClass.addMethod(MethodSpec
+                .methodBuilder("hashCode")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(int.class)
+                .addCode(hashCode.build())
+                .build());
+
+        innerClass.addMethod(MethodSpec
+                .methodBuilder("equals")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(boolean.class)
+                .addParameter(Object.class, "o")
+                .addStatement("if (this == o) return true")
+                .addStatement("return o instanceof $1T other && $2L", className, CodeBlock.join(comparisons, " && "))
+                .build());
     }
 
     @Override
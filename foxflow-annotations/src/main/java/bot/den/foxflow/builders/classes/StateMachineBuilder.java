@@ -1,24 +1,34 @@
 package bot.den.foxflow.builders.classes;
 
+import bot.den.foxflow.Clock;
 import bot.den.foxflow.DefaultState;
 import bot.den.foxflow.Field;
 import bot.den.foxflow.Generated;
+import bot.den.foxflow.LatencyStats;
+import bot.den.foxflow.LatencyStatsPublisher;
+import bot.den.foxflow.PollableStateMachine;
 import bot.den.foxflow.Util;
 import bot.den.foxflow.builders.FieldHelper;
 import bot.den.foxflow.builders.Names;
 import bot.den.foxflow.builders.TypedBuilder;
 import bot.den.foxflow.builders.methods.TransitionToBuilder;
 import bot.den.foxflow.builders.methods.TransitionToBuilder.TransitionToCode;
+import bot.den.foxflow.exceptions.FailLoudlyException;
+import bot.den.foxflow.exceptions.InvalidStateTransition;
+import bot.den.foxflow.exceptions.StateMachineSealed;
 import bot.den.foxflow.validator.EnumValidator;
 import bot.den.foxflow.validator.RecordValidator;
 import bot.den.foxflow.validator.Validator;
 import com.palantir.javapoet.*;
 import com.palantir.javapoet.MethodSpec.Builder;
+import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.networktables.StringPublisher;
 import edu.wpi.first.networktables.StringTopic;
+import edu.wpi.first.networktables.StructPublisher;
+import edu.wpi.first.units.Units;
+import edu.wpi.first.util.struct.Struct;
 import edu.wpi.first.wpilibj.DSControlWord;
-import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
 import edu.wpi.first.wpilibj2.command.Commands;
@@ -26,9 +36,12 @@ import edu.wpi.first.wpilibj2.command.button.Trigger;
 
 import javax.lang.model.element.Element;
 import javax.lang.model.element.Modifier;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BooleanSupplier;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -42,7 +55,6 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
     private final Map<String, LinkedHashMap<ClassName, String>> innerClassEnabledFields;
 
     private final ParameterizedTypeName subDataSetType;
-    private final ParameterizedTypeName commandListType;
 
 
     public StateMachineBuilder(
@@ -52,16 +64,13 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
         this.validator = names.validator();
         builder = TypeSpec.classBuilder(names.stateMachineClassName())
                 .addModifiers(Modifier.PUBLIC)
-                .addAnnotation(Generated.class);
+                .addAnnotation(Generated.class)
+                .addSuperinterface(PollableStateMachine.class);
 
         subDataSetType = ParameterizedTypeName.get(
                 ClassName.get(Set.class),
                 names.dataTypeName()
         );
-        commandListType = ParameterizedTypeName.get(
-                List.class,
-                Command.class
-        );
 
         innerClassEnabledFields = Map.ofEntries(
                 Map.entry(FROM, new LinkedHashMap<>()),
@@ -88,10 +97,16 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
         addTimerFields();
         addEnableFields();
         addControlWordFields();
+        addMetricsFields();
+        addSealFields();
 
         addConstructors();
 
         addCurrentStateMethod();
+        addFiredSupplierMaskMethod();
+        addMetricsMethods();
+        addClockMethod();
+        addSealMethods();
         addStateMethods();
         addTransitionToMethods();
         addPollMethods();
@@ -105,6 +120,8 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
         addRegenerateMethods();
 
         builder.addType(new StateManagerBuilder(names).build());
+        addCompiledStateType();
+        addTriggerSlotType();
     }
 
     private void addManagerField() {
@@ -128,6 +145,28 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
                 .addModifiers(Modifier.PRIVATE)
                 .build()
         );
+
+        builder.addField(FieldSpec
+                .builder(BitSet.class, "currentSubDataIds")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new $T()", BitSet.class)
+                .build()
+        );
+
+        // Every sub state is interned with a dense id, so the runtime works on arrays and bit sets instead of hashing
+        builder.addField(FieldSpec
+                .builder(ParameterizedTypeName.get(ClassName.get(Map.class), names.dataTypeName(), ClassName.get(Integer.class)), "subDataIds")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .initializer(names.newDataMap())
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(ParameterizedTypeName.get(ClassName.get(List.class), names.dataTypeName()), "subDataById")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T<>()", ArrayList.class)
+                .build()
+        );
     }
 
     private void addNetworkTablesFields() {
@@ -151,6 +190,180 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
                 .initializer("currentStateTopic.publish()")
                 .build()
         );
+
+        if (validator.throttlesStateString()) {
+            // The string form is only published along with the metrics when it's out of date
+            builder.addField(FieldSpec
+                    .builder(boolean.class, "currentStateNameStale")
+                    .addModifiers(Modifier.PRIVATE)
+                    .build()
+            );
+        }
+
+        if (validator instanceof RecordValidator rv && rv.publishFields()) {
+            for (var field : rv.fields) {
+                builder.addField(FieldSpec
+                        .builder(StringPublisher.class, field.name() + "FieldPublisher")
+                        .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("networkTableInstance.getStringTopic(\"FoxFlow/$1L/$2L\").publish()", validator.originalTypeName().simpleName(), field.name())
+                        .build()
+                );
+            }
+        }
+
+        if (validator.publishStruct()) {
+            builder.addField(FieldSpec
+                    .builder(ParameterizedTypeName.get(ClassName.get(StructPublisher.class), validator.originalTypeName()), "currentStateStructPublisher")
+                    .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("networkTableInstance.getStructTopic(\"FoxFlow/$1L/StateStruct\", new $2T()).publish()", validator.originalTypeName().simpleName(), stateStructClassName())
+                    .build()
+            );
+
+            addStateStructType();
+        }
+    }
+
+    /**
+     * @param validator The validator of the state machine being generated
+     * @param state     The state to publish the fields of
+     * @param previous  The state that was published before, or null if every field should be published
+     * @return Code that publishes every field of the state that changed to its own topic
+     */
+    static CodeBlock fieldPublishing(Validator validator, CodeBlock state, CodeBlock previous) {
+        var code = CodeBlock.builder();
+        if (!(validator instanceof RecordValidator rv) || !rv.publishFields()) {
+            return code.build();
+        }
+
+        for (var field : rv.fields) {
+            boolean isEnum = !rv.nestedRecords.containsKey(field.value()) && !rv.nestedInterfaces.containsKey(field.value());
+
+            // Enum names are constants, so publishing them doesn't create a new string
+            var value = isEnum
+                    ? CodeBlock.of("$L.$L().name()", state, field.name())
+                    : CodeBlock.of("$L.$L().toString()", state, field.name());
+
+            if (previous == null) {
+                code.addStatement("$LFieldPublisher.set($L)", field.name(), value);
+            } else if (isEnum) {
+                code.addStatement("if($2L.$1L() != $3L.$1L()) $1LFieldPublisher.set($4L)", field.name(), state, previous, value);
+            } else {
+                code.addStatement("if(!$2L.$1L().equals($3L.$1L())) $1LFieldPublisher.set($4L)", field.name(), state, previous, value);
+            }
+        }
+
+        return code.build();
+    }
+
+    private ClassName stateStructClassName() {
+        return names.stateMachineClassName().nestedClass("StateStruct");
+    }
+
+    /**
+     * Packs the state as one ordinal per field. Each field is declared as an enum in the schema so dashboards can show
+     * the constant names.
+     */
+    private void addStateStructType() {
+        var stateType = validator.originalTypeName();
+
+        // Field name, field type and the constants in that enum
+        List<Field<ClassName>> structFields = new ArrayList<>();
+        Map<String, List<String>> constants = new HashMap<>();
+        if (validator instanceof EnumValidator ev) {
+            structFields.add(new Field<>(stateType, "state"));
+            constants.put("state", ev.constants);
+        } else if (validator instanceof RecordValidator rv) {
+            for (var field : rv.fields) {
+                structFields.add(field);
+                constants.put(field.name(), rv.enumConstants.get(field.value()));
+            }
+        }
+
+        List<String> schema = new ArrayList<>();
+        List<CodeBlock> unpackArguments = new ArrayList<>();
+        CodeBlock.Builder pack = CodeBlock.builder();
+        int size = 0;
+        for (var field : structFields) {
+            var fieldConstants = constants.get(field.name());
+            boolean wide = fieldConstants.size() > 256;
+            size += wide ? 2 : 1;
+
+            List<String> enumValues = new ArrayList<>();
+            for (int i = 0; i < fieldConstants.size(); i++) {
+                enumValues.add(fieldConstants.get(i) + "=" + i);
+            }
+            schema.add("enum {" + String.join(", ", enumValues) + "} " + (wide ? "uint16 " : "uint8 ") + field.name());
+
+            var ordinal = validator instanceof EnumValidator ? CodeBlock.of("value.ordinal()") : CodeBlock.of("value.$L().ordinal()", field.name());
+            if (wide) {
+                pack.addStatement("bb.putShort((short) $L)", ordinal);
+                unpackArguments.add(CodeBlock.of("$T.values()[$T.toUnsignedInt(bb.getShort())]", field.value(), Short.class));
+            } else {
+                pack.addStatement("bb.put((byte) $L)", ordinal);
+                unpackArguments.add(CodeBlock.of("$T.values()[$T.toUnsignedInt(bb.get())]", field.value(), Byte.class));
+            }
+        }
+
+        var unpack = validator instanceof EnumValidator
+                ? unpackArguments.get(0)
+                : CodeBlock.of("new $T($L)", stateType, CodeBlock.join(unpackArguments, ", "));
+
+        builder.addType(TypeSpec
+                .classBuilder(stateStructClassName())
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addSuperinterface(ParameterizedTypeName.get(ClassName.get(Struct.class), stateType))
+                .addMethod(MethodSpec
+                        .methodBuilder("getTypeClass")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(ParameterizedTypeName.get(ClassName.get(Class.class), stateType))
+                        .addStatement("return $T.class", stateType)
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("getTypeName")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(String.class)
+                        .addStatement("return $S", stateType.simpleName())
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("getSize")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(int.class)
+                        .addStatement("return $L", size)
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("getSchema")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(String.class)
+                        .addStatement("return $S", String.join(";", schema))
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("unpack")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(ByteBuffer.class, "bb")
+                        .returns(stateType)
+                        .addStatement("return $L", unpack)
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("pack")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(ByteBuffer.class, "bb")
+                        .addParameter(stateType, "value")
+                        .addCode(pack.build())
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("isImmutable")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(boolean.class)
+                        .addStatement("return true")
+                        .build())
+                .build());
     }
 
     private void addTransitionWhenFields() {
@@ -170,55 +383,186 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
         builder.addField(FieldSpec
                 .builder(transitionWhenMapType, "transitionWhenMap")
                 .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
-                .initializer("new $T<>()", HashMap.class)
+                .initializer(names.newDataMap())
                 .build()
         );
 
-        var transitionWhenCacheType = ParameterizedTypeName.get(
+        var pairListType = ParameterizedTypeName.get(
+                ClassName.get(List.class),
+                validator.pairClassName()
+        );
+
+        // Every distinct (from, to) pair gets an id, which lets a set of transitions be stored as a BitSet
+        builder.addField(FieldSpec
+                .builder(pairListType, "transitions")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T<>()", ArrayList.class)
+                .build()
+        );
+
+        var transitionIdMapType = ParameterizedTypeName.get(
                 ClassName.get(Map.class),
-                ClassName.get(BooleanSupplier.class),
+                names.dataTypeName(),
                 ParameterizedTypeName.get(
-                        ClassName.get(List.class),
-                        validator.pairClassName()
+                        ClassName.get(Map.class),
+                        names.dataTypeName(),
+                        ClassName.get(Integer.class)
                 )
         );
 
         builder.addField(FieldSpec
-                .builder(transitionWhenCacheType, "transitionWhenCache")
+                .builder(transitionIdMapType, "transitionIdMap")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .initializer(names.newDataMap())
+                .build()
+        );
+
+        // The cache is stored as parallel arrays so each supplier for the current state has a single bit index
+        builder.addField(FieldSpec
+                .builder(BooleanSupplier[].class, "transitionWhenSupplierCache")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new $T[0]", BooleanSupplier.class)
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(BitSet[].class, "transitionWhenTargetCache")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new $T[0]", BitSet.class)
+                .build()
+        );
+
+        // How many polls each throttled supplier reuses its last value for, keyed by the supplier
+        builder.addField(FieldSpec
+                .builder(ParameterizedTypeName.get(Map.class, BooleanSupplier.class, Integer.class), "transitionWhenPollDivisors")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T<>()", IdentityHashMap.class)
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(int[].class, "transitionWhenDivisorCache")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new int[0]")
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(int[].class, "transitionWhenCountdownCache")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new int[0]")
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(boolean[].class, "transitionWhenValueCache")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new boolean[0]")
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(long[].class, "firedSupplierMask")
                 .addModifiers(Modifier.PRIVATE)
+                .initializer("new long[0]")
+                .build()
+        );
+
+        // The caches the mask was computed from, so its bits can be read back after the poll changed state
+        builder.addField(FieldSpec
+                .builder(BooleanSupplier[].class, "firedSupplierCache")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new $T[0]", BooleanSupplier.class)
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(BitSet[].class, "firedTargetCache")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new $T[0]", BitSet.class)
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(LatencyStats[].class, "transitionWhenLatencyCache")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new $T[0]", LatencyStats.class)
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(LatencyStats[].class, "firedLatencyCache")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new $T[0]", LatencyStats.class)
+                .build()
+        );
+
+        // Transitions signalled through the manager since the last poll
+        builder.addField(FieldSpec
+                .builder(BitSet.class, "pendingTransitions")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T()", BitSet.class)
+                .build()
+        );
+
+        // Scratch space reused by every call to getNextState
+        builder.addField(FieldSpec
+                .builder(BitSet.class, "activeTransitions")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T()", BitSet.class)
+                .build()
+        );
+
+        if (!(validator instanceof RecordValidator)) {
+            return;
+        }
+
+        // Which state a set of active transitions merges into never changes, so we only ever resolve each set once
+        builder.addField(FieldSpec
+                .builder(ParameterizedTypeName.get(ClassName.get(Map.class), ClassName.get(BitSet.class), names.dataTypeName()), "mergeResolutionCache")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
                 .initializer("new $T<>()", HashMap.class)
                 .build()
         );
+
+        for (var scratchField : List.of("possibleOptions", "finalResults", "mergedResults", "seenOptions")) {
+            builder.addField(FieldSpec
+                    .builder(pairListType, scratchField)
+                    .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("new $T<>()", ArrayList.class)
+                    .build()
+            );
+        }
     }
 
     private void addCommandFields() {
-        var transitionCommandMapType = ParameterizedTypeName.get(
+        addByToStateFields("transitionCommandMap", "transitionCommandCache", Command.class);
+        addByToStateFields("transitionActionMap", "transitionActionCache", Runnable.class);
+    }
+
+    private void addByToStateFields(String mapName, String cacheName, Class<?> type) {
+        var mapType = ParameterizedTypeName.get(
                 ClassName.get(Map.class),
                 names.dataTypeName(),
                 ParameterizedTypeName.get(
                         ClassName.get(Map.class),
                         names.dataTypeName(),
-                        commandListType
+                        ParameterizedTypeName.get(List.class, type)
                 )
         );
 
         builder.addField(FieldSpec
-                .builder(transitionCommandMapType, "transitionCommandMap")
+                .builder(mapType, mapName)
                 .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
-                .initializer("new $T<>()", HashMap.class)
+                .initializer(names.newDataMap())
                 .build()
         );
 
-        var transitionCommandCacheType = ParameterizedTypeName.get(
-                ClassName.get(Map.class),
-                names.dataTypeName(),
-                commandListType
-        );
-
+        // Indexed by the id of the sub state being transitioned to
         builder.addField(FieldSpec
-                .builder(transitionCommandCacheType, "transitionCommandCache")
+                .builder(ArrayTypeName.of(ArrayTypeName.of(type)), cacheName)
                 .addModifiers(Modifier.PRIVATE)
-                .initializer("new $T<>()", HashMap.class)
+                .initializer("new $T[0][]", type)
                 .build()
         );
     }
@@ -235,19 +579,23 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
         builder.addField(FieldSpec
                 .builder(failLoudlyMapType, "failLoudlyMap")
                 .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
-                .initializer("new $T<>()", HashMap.class)
+                .initializer(names.newDataMap())
                 .build()
         );
 
-        var failLoudlyCacheType = ParameterizedTypeName.get(
-                ClassName.get(Set.class),
-                names.dataTypeName()
+        // Transitions set up with transitionOn or signal. They only have an id, so sealing checks them from here.
+        builder.addField(FieldSpec
+                .builder(failLoudlyMapType, "signalTransitionMap")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .initializer(names.newDataMap())
+                .build()
         );
 
+        // Ids of the sub states we can't transition to
         builder.addField(FieldSpec
-                .builder(failLoudlyCacheType, "failLoudlyCache")
+                .builder(BitSet.class, "failLoudlyCache")
                 .addModifiers(Modifier.PRIVATE)
-                .initializer("new $T<>()", HashSet.class)
+                .initializer("new $T()", BitSet.class)
                 .build()
         );
     }
@@ -262,53 +610,114 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
         builder.addField(FieldSpec
                 .builder(triggerMapType, "triggerMap")
                 .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
-                .initializer("new $T<>()", HashMap.class)
+                .initializer(names.newDataMap())
+                .build()
+        );
+
+        // Updated whenever the current sub states change, so triggers never have to look anything up
+        builder.addField(FieldSpec
+                .builder(ArrayTypeName.of(triggerSlotClassName(names)), "triggerSlots")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new $T[0]", triggerSlotClassName(names))
+                .build()
+        );
+
+        // The array has spare room at the end, only this many slots are in use
+        builder.addField(FieldSpec
+                .builder(int.class, "triggerSlotCount")
+                .addModifiers(Modifier.PRIVATE)
                 .build()
         );
     }
 
     private void addTimerFields() {
-        var timerMapType = ParameterizedTypeName.get(
+        // Every time limit of a from state, each going to a different state
+        var timeLimitMapType = ParameterizedTypeName.get(
                 ClassName.get(Map.class),
                 names.dataTypeName(),
-                ClassName.get(edu.wpi.first.wpilibj.Timer.class)
+                ParameterizedTypeName.get(ClassName.get(List.class), validator.timeClassName())
         );
 
         builder.addField(FieldSpec
-                .builder(timerMapType, "timerMap")
+                .builder(timeLimitMapType, "timeLimitMap")
                 .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
-                .initializer("new $T<>()", HashMap.class)
+                .initializer(names.newDataMap())
                 .build()
         );
 
-        var timeLimitMapType = ParameterizedTypeName.get(
-                ClassName.get(Map.class),
-                names.dataTypeName(),
-                validator.timeClassName()
+        // When each sub state was last entered in microseconds, indexed by its sub data id
+        builder.addField(FieldSpec
+                .builder(long[].class, "subDataEntryTimes")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new long[16]")
+                .build()
         );
 
+        // The timed sub states we're currently in, along with their time limits and transitions
         builder.addField(FieldSpec
-                .builder(timeLimitMapType, "timeLimitMap")
+                .builder(int[].class, "timedSubDataIdsCache")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new int[0]")
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(long[].class, "timeLimitMicrosCache")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new long[0]")
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(int[].class, "timedTransitionIdsCache")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("new int[0]")
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(Clock.class, "clock")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("$T.fpga()", Clock.class)
+                .build()
+        );
+
+        // The last time the clock was read. Transitions set up between polls count down from here, like the polls around them
+        builder.addField(FieldSpec
+                .builder(long.class, "clockTime")
+                .addModifiers(Modifier.PRIVATE)
+                .initializer("this.clock.nowMicros()")
+                .build()
+        );
+
+        // Timed transitions that already fired since their from state was entered. Each one only fires once per visit.
+        builder.addField(FieldSpec
+                .builder(BitSet.class, "expiredTimedTransitions")
                 .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
-                .initializer("new $T<>()", HashMap.class)
+                .initializer("new $T()", BitSet.class)
                 .build()
         );
 
+        // The earliest deadline of the timed sub states we're in, only recomputed when it fires or the state changes
         builder.addField(FieldSpec
-                .builder(Timer.class, "timerCache")
+                .builder(long.class, "nextDeadline")
                 .addModifiers(Modifier.PRIVATE)
+                .initializer("$T.MAX_VALUE", Long.class)
                 .build()
         );
 
         builder.addField(FieldSpec
-                .builder(names.dataTypeName(), "timerFromStateCache")
+                .builder(int.class, "nextDeadlineTransition")
                 .addModifiers(Modifier.PRIVATE)
+                .initializer("-1")
                 .build()
         );
 
+        // The timed transition the current poll found expired. It's only marked as fired once updateState applies it.
         builder.addField(FieldSpec
-                .builder(validator.timeClassName(), "timeLimitCache")
+                .builder(int.class, "firedTimedTransition")
                 .addModifiers(Modifier.PRIVATE)
+                .initializer("-1")
                 .build()
         );
     }
@@ -342,6 +751,161 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
         );
     }
 
+    private void addMetricsFields() {
+        // Every machine keeps its timings, but they're only recorded and published after enableMetrics()
+        builder.addField(FieldSpec
+                .builder(boolean.class, "metricsEnabled")
+                .addModifiers(Modifier.PRIVATE)
+                .build()
+        );
+
+        for (var statsName : List.of("pollLatency", "nextStateLatency", "updateStateLatency")) {
+            builder.addField(FieldSpec
+                    .builder(LatencyStats.class, statsName)
+                    .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("new $T()", LatencyStats.class)
+                    .build()
+            );
+
+            builder.addField(FieldSpec
+                    .builder(LatencyStatsPublisher.class, statsName + "Publisher")
+                    .addModifiers(Modifier.PRIVATE)
+                    .build()
+            );
+        }
+
+        // How long each condition takes, shared by every state using it. They're numbered in the order the states using
+        // them are first entered, which is also where they're published: FoxFlow/<name>/Metrics/Suppliers/<number>
+        builder.addField(FieldSpec
+                .builder(ParameterizedTypeName.get(Map.class, BooleanSupplier.class, LatencyStats.class), "supplierLatencies")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T<>()", LinkedHashMap.class)
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(ParameterizedTypeName.get(List.class, LatencyStatsPublisher.class), "supplierLatencyPublishers")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $T<>()", ArrayList.class)
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(ClassName.get(NetworkTable.class), "metricsTable")
+                .addModifiers(Modifier.PRIVATE)
+                .build()
+        );
+
+        // Numbers the machines of this type that publish metrics under the default name, so they don't share topics
+        builder.addField(FieldSpec
+                .builder(AtomicInteger.class, "metricsInstanceCount")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T()", AtomicInteger.class)
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(int.class, "pollsSinceMetricsPublished")
+                .addModifiers(Modifier.PRIVATE)
+                .build()
+        );
+    }
+
+    private void addSealFields() {
+        builder.addField(FieldSpec
+                .builder(boolean.class, "sealed")
+                .addModifiers(Modifier.PRIVATE)
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(ParameterizedTypeName.get(ClassName.get(Map.class), validator.originalTypeName(), compiledStateClassName()), "compiledStates")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .initializer(validator instanceof EnumValidator ? names.newDataMap() : CodeBlock.of("new $T<>()", HashMap.class))
+                .build()
+        );
+
+        if (!(validator instanceof RecordValidator rv && rv.packsStates)) {
+            return;
+        }
+
+        // Small enough enum-only records are numbered by Data.packRecord, so they can skip hashing entirely
+        builder.addField(FieldSpec
+                .builder(ArrayTypeName.of(compiledStateClassName()), "compiledStatesByPackedState")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $2T[(int) $1T.PACKED_STATE_COUNT]", rv.wrappedClassName(), compiledStateClassName())
+                .build()
+        );
+
+        builder.addField(FieldSpec
+                .builder(ArrayTypeName.of(rv.originalTypeName()), "recordsByPackedState")
+                .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                .initializer("new $2T[(int) $1T.PACKED_STATE_COUNT]", rv.wrappedClassName(), rv.originalTypeName())
+                .build()
+        );
+    }
+
+    private ClassName compiledStateClassName() {
+        return names.stateMachineClassName().nestedClass("CompiledState");
+    }
+
+    static ClassName triggerSlotClassName(Names names) {
+        return names.stateMachineClassName().nestedClass("TriggerSlot");
+    }
+
+    private void addTriggerSlotType() {
+        builder.addType(TypeSpec
+                .classBuilder(triggerSlotClassName(names))
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addSuperinterface(BooleanSupplier.class)
+                .addField(int.class, "id", Modifier.FINAL)
+                .addField(boolean.class, "active")
+                .addMethod(MethodSpec
+                        .constructorBuilder()
+                        .addParameter(int.class, "id")
+                        .addStatement("this.id = id")
+                        .build()
+                )
+                .addMethod(MethodSpec
+                        .methodBuilder("getAsBoolean")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(boolean.class)
+                        .addStatement("return this.active")
+                        .build()
+                )
+                .build()
+        );
+    }
+
+    private void addCompiledStateType() {
+        var compiledState = TypeSpec.classBuilder(compiledStateClassName())
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
+
+        // Everything the runtime path needs for one set of current sub states. It's all fixed once compiled, except the
+        // countdown and value caches, which track throttled conditions while the state is current and are reset on entry.
+        compiledState.addField(BooleanSupplier[].class, "transitionWhenSupplierCache");
+        compiledState.addField(BitSet[].class, "transitionWhenTargetCache");
+        compiledState.addField(int[].class, "transitionWhenDivisorCache");
+        compiledState.addField(int[].class, "transitionWhenCountdownCache");
+        compiledState.addField(boolean[].class, "transitionWhenValueCache");
+        compiledState.addField(LatencyStats[].class, "transitionWhenLatencyCache");
+        compiledState.addField(Command[][].class, "transitionCommandCache");
+        compiledState.addField(Runnable[][].class, "transitionActionCache");
+        compiledState.addField(BitSet.class, "failLoudlyCache");
+        compiledState.addField(int[].class, "timedSubDataIds");
+        compiledState.addField(long[].class, "timeLimitMicros");
+        compiledState.addField(int[].class, "timedTransitionIds");
+
+        compiledState.addField(subDataSetType, "fromSubData");
+        compiledState.addField(subDataSetType, "toSubData");
+        compiledState.addField(BitSet.class, "fromSubDataIds");
+        compiledState.addField(int[].class, "toSubDataIds");
+        compiledState.addField(String.class, "stateName");
+
+        builder.addType(compiledState.build());
+    }
+
     private void addConstructors() {
         FieldHelper<MethodSpec> constructors = validator.newFieldHelper();
 
@@ -355,9 +919,11 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
                     .addParameter(validator.originalTypeName(), "initialState")
                     .addCode("""
                             this.currentState = initialState;
-                            this.currentSubData = this.generateToSubDataStates(initialState);
+                            this.regenerateCaches();
                             currentStatePublisher.set(currentState.toString());
                             """)
+                    .addCode(validator.publishStruct() ? CodeBlock.of("currentStateStructPublisher.set(currentState);\n") : CodeBlock.of(""))
+                    .addCode(fieldPublishing(validator, CodeBlock.of("currentState"), null))
                     .build();
         });
 
@@ -417,22 +983,283 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
 
                     constructorBuilder.addCode(code.build());
 
-                    return constructorBuilder.build();
-                });
+                    return constructorBuilder.build();
+                });
+
+        for (var method : constructors) {
+            builder.addMethod(method);
+        }
+    }
+
+    private void addCurrentStateMethod() {
+        builder.addMethod(MethodSpec
+                .methodBuilder("currentState")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(validator.originalTypeName())
+                .addStatement("return this.currentState")
+                .build()
+        );
+    }
+
+    private void addFiredSupplierMaskMethod() {
+        builder.addMethod(MethodSpec
+                .methodBuilder("firedSupplierMask")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(long[].class)
+                .addStatement("return this.firedSupplierMask")
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("firedSupplier")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(int.class, "index")
+                .returns(BooleanSupplier.class)
+                .addStatement("return this.firedSupplierCache[index]")
+                .build()
+        );
+
+        var transitionListType = ParameterizedTypeName.get(ClassName.get(List.class), validator.pairClassName());
+        builder.addMethod(MethodSpec
+                .methodBuilder("firedSupplierTransitions")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(int.class, "index")
+                .returns(transitionListType)
+                .addCode("""
+                                // A condition shared by several transitions of the state only has one bit
+                                var targets = this.firedTargetCache[index];
+                                $T result = new $T<>(targets.cardinality());
+                                for(int id = targets.nextSetBit(0); id >= 0; id = targets.nextSetBit(id + 1)) {
+                                    result.add(this.transitions.get(id));
+                                }
+                                
+                                return result;
+                                """,
+                        transitionListType,
+                        ArrayList.class)
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("firedSupplierLatency")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(int.class, "index")
+                .returns(LatencyStats.class)
+                .addStatement("return this.firedLatencyCache[index]")
+                .build()
+        );
+    }
+
+    private void addMetricsMethods() {
+        for (var statsName : List.of("pollLatency", "nextStateLatency", "updateStateLatency")) {
+            builder.addMethod(MethodSpec
+                    .methodBuilder(statsName)
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(LatencyStats.class)
+                    .addStatement("return this.$L", statsName)
+                    .build()
+            );
+        }
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("enableMetrics")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(names.stateMachineClassName())
+                .addStatement(
+                        "return this.enableMetrics($S + \"/\" + metricsInstanceCount.getAndIncrement())",
+                        validator.originalTypeName().canonicalName()
+                )
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("enableMetrics")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(String.class, "name")
+                .returns(names.stateMachineClassName())
+                .addCode("""
+                                if(this.metricsEnabled) {
+                                    this.pollLatencyPublisher.close();
+                                    this.nextStateLatencyPublisher.close();
+                                    this.updateStateLatencyPublisher.close();
+                                    for(var publisher : this.supplierLatencyPublishers) {
+                                        publisher.close();
+                                    }
+                                }
+                                
+                                this.metricsTable = networkTableInstance.getTable("FoxFlow/" + name + "/Metrics");
+                                this.pollLatencyPublisher = new $1T(metricsTable.getSubTable("Poll"), this.pollLatency);
+                                this.nextStateLatencyPublisher = new $1T(metricsTable.getSubTable("NextState"), this.nextStateLatency);
+                                this.updateStateLatencyPublisher = new $1T(metricsTable.getSubTable("UpdateState"), this.updateStateLatency);
+                                
+                                // Conditions seen so far are published under the new name, later ones as they're seen
+                                this.supplierLatencyPublishers.clear();
+                                for(var latency : this.supplierLatencies.values()) {
+                                    this.supplierLatencyPublishers.add(new $1T(metricsTable.getSubTable("Suppliers/" + this.supplierLatencyPublishers.size()), latency));
+                                }
+                                this.metricsEnabled = true;
+                                
+                                return this;
+                                """,
+                        LatencyStatsPublisher.class)
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("isMetricsEnabled")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(boolean.class)
+                .addStatement("return this.metricsEnabled")
+                .build()
+        );
+
+        var publishMetricsMethod = MethodSpec
+                .methodBuilder("publishMetrics")
+                .addModifiers(Modifier.PUBLIC)
+                .addStatement("this.pollsSinceMetricsPublished = 0")
+                .beginControlFlow("if(this.metricsEnabled)")
+                .addStatement("this.pollLatencyPublisher.publish()")
+                .addStatement("this.nextStateLatencyPublisher.publish()")
+                .addStatement("this.updateStateLatencyPublisher.publish()")
+                .beginControlFlow("for(int i = 0; i < this.supplierLatencyPublishers.size(); i++)")
+                .addStatement("this.supplierLatencyPublishers.get(i).publish()")
+                .endControlFlow()
+                .endControlFlow();
+
+        if (validator.throttlesStateString()) {
+            publishMetricsMethod
+                    .beginControlFlow("if(this.currentStateNameStale)")
+                    .addStatement("this.currentStateNameStale = false")
+                    .addStatement("this.currentStatePublisher.set(this.currentState.toString())")
+                    .endControlFlow();
+        }
+
+        builder.addMethod(publishMetricsMethod.build());
+    }
+
+    private void addClockMethod() {
+        builder.addMethod(MethodSpec
+                .methodBuilder("useClock")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(Clock.class, "clock")
+                .addCode("""
+                                this.clock = clock;
+                                this.clockTime = clock.nowMicros();
+                                
+                                // Times read from the old clock mean nothing to the new one, so every state starts counting down again
+                                $T.fill(this.subDataEntryTimes, this.clockTime);
+                                this.scheduleNextDeadline();
+                                """,
+                        Arrays.class)
+                .build()
+        );
+    }
+
+    private void addSealMethods() {
+        var sealBuilder = MethodSpec
+                .methodBuilder("seal")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(names.stateMachineClassName())
+                .addCode("""
+                                if(this.sealed) {
+                                    return this;
+                                }
+                                
+                                this.validateSetup();
+                                this.sealed = true;
+                                """);
+
+        if (validator instanceof EnumValidator) {
+            sealBuilder.addCode("""
+                            
+                            // Every state is known ahead of time, so compile all of them now instead of during a match
+                            for(var state : $T.values()) {
+                                this.compiledState(state);
+                            }
+                            """,
+                    validator.originalTypeName());
+        }
+
+        builder.addMethod(sealBuilder
+                .addCode("""
+                                
+                                this.applyCompiledState(this.compiledState(this.currentState));
+                                
+                                return this;
+                                """)
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("isSealed")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(boolean.class)
+                .addStatement("return this.sealed")
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("verifyNotSealed")
+                .addModifiers(Modifier.PRIVATE)
+                .beginControlFlow("if(this.sealed)")
+                .addStatement("throw new $T(getClass().getSimpleName())", StateMachineSealed.class)
+                .endControlFlow()
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("validateSetup")
+                .addModifiers(Modifier.PRIVATE)
+                .addCode("""
+                                for(var fromEntry : this.transitionWhenMap.entrySet()) {
+                                    for(var toState : fromEntry.getValue().keySet()) {
+                                        this.validateTransition(fromEntry.getKey(), toState);
+                                    }
+                                }
+                                
+                                for(var entry : this.timeLimitMap.entrySet()) {
+                                    for(var timeLimit : entry.getValue()) {
+                                        this.validateTransition(entry.getKey(), timeLimit.$1L());
+                                    }
+                                }
+                                
+                                for(var entry : this.signalTransitionMap.entrySet()) {
+                                    for(var toState : entry.getValue()) {
+                                        this.validateTransition(entry.getKey(), toState);
+                                    }
+                                }
+                                """,
+                        validator instanceof EnumValidator ? "getFirst" : "data")
+                .build()
+        );
+
+        var validateTransitionBuilder = MethodSpec
+                .methodBuilder("validateTransition")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(names.dataTypeName(), "fromState")
+                .addParameter(names.dataTypeName(), "toState")
+                .addCode("""
+                                var failLoudly = this.failLoudlyMap.get(fromState);
+                                if(failLoudly != null && failLoudly.contains(toState)) {
+                                    var cause = new $2T("Transition was set up to happen but also to fail loudly");
+                                
+                                    throw new $1T(fromState, toState, cause);
+                                }
+                                """,
+                        InvalidStateTransition.class,
+                        FailLoudlyException.class);
 
-        for (var method : constructors) {
-            builder.addMethod(method);
+        if (validator.supportsStateTransition()) {
+            validateTransitionBuilder.addCode("""
+                            
+                            if(!fromState.canTransitionState(toState)) {
+                                throw new $T(fromState, toState);
+                            }
+                            """,
+                    InvalidStateTransition.class);
         }
-    }
 
-    private void addCurrentStateMethod() {
-        builder.addMethod(MethodSpec
-                .methodBuilder("currentState")
-                .addModifiers(Modifier.PUBLIC)
-                .returns(validator.originalTypeName())
-                .addStatement("return this.currentState")
-                .build()
-        );
+        builder.addMethod(validateTransitionBuilder.build());
     }
 
     private void addStateMethods() {
@@ -560,27 +1387,49 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
 
         MethodSpec.Builder pollMethodBuilder = MethodSpec
                 .methodBuilder("poll")
-                .addModifiers(Modifier.PUBLIC)
-                .addStatement("$T nextState = this.getNextState()", names.dataTypeName());
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC);
 
         if (validator instanceof RecordValidator rv && rv.robotStatePresent) {
             var robotFieldOption = rv.fields.stream().filter(f -> f.value().equals(names.robotStateName())).findFirst();
             if (robotFieldOption.isEmpty()) {
                 throw new RuntimeException("Robot state was supposedly present but we couldn't find the field");
             }
+            Function<String, CodeBlock> robotStateData = robotState -> rv
+                    .dataEmitter(List.of(robotFieldOption.get()))
+                    .withConstructor()
+                    .withTransform(f -> "RobotState." + robotState)
+                    .emit();
+
+            builder.addMethod(pollMethodBuilder
+                    .addCode("""
+                            this.controlWord.refresh();
+                            this.poll(this.controlWord);
+                            """)
+                    .build()
+            );
+
+            // A StateMachineGroup refreshes one control word for every machine and hands it to us here
+            pollMethodBuilder = MethodSpec
+                    .methodBuilder("poll")
+                    .addAnnotation(Override.class)
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(DSControlWord.class, "controlWord")
+                    .addStatement("boolean metricsEnabled = this.metricsEnabled")
+                    .addStatement("long pollStart = metricsEnabled ? $T.nanoTime() : 0", System.class)
+                    .addStatement("$T nextState = this.getNextState()", names.dataTypeName());
 
             pollMethodBuilder.addCode(
                     """
-                            this.controlWord.refresh();
                             $1T nextRobotState = null;
-                            if(currentState.robotState() != RobotState.DISABLED && this.controlWord.isDisabled()) {
-                                nextRobotState = new $2T(RobotState.DISABLED);
-                            } else if(currentState.robotState() != RobotState.AUTO && this.controlWord.isAutonomousEnabled()) {
-                                nextRobotState = new $2T(RobotState.AUTO);
-                            } else if(currentState.robotState() != RobotState.TELEOP && this.controlWord.isTeleopEnabled()) {
-                                nextRobotState = new $2T(RobotState.TELEOP);
-                            } else if(currentState.robotState() != RobotState.TEST && this.controlWord.isTest()) {
-                                nextRobotState = new $2T(RobotState.TEST);
+                            if(currentState.robotState() != RobotState.DISABLED && controlWord.isDisabled()) {
+                                nextRobotState = $2L;
+                            } else if(currentState.robotState() != RobotState.AUTO && controlWord.isAutonomousEnabled()) {
+                                nextRobotState = $3L;
+                            } else if(currentState.robotState() != RobotState.TELEOP && controlWord.isTeleopEnabled()) {
+                                nextRobotState = $4L;
+                            } else if(currentState.robotState() != RobotState.TEST && controlWord.isTest()) {
+                                nextRobotState = $5L;
                             }
                             
                             if(nextState != null && nextRobotState != null) {
@@ -590,149 +1439,309 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
                             }
                             """,
                     names.dataTypeName(),
-                    rv.fieldToInnerClass.get(List.of(robotFieldOption.get())));
+                    robotStateData.apply("DISABLED"),
+                    robotStateData.apply("AUTO"),
+                    robotStateData.apply("TELEOP"),
+                    robotStateData.apply("TEST"));
+        } else {
+            pollMethodBuilder
+                    .addStatement("boolean metricsEnabled = this.metricsEnabled")
+                    .addStatement("long pollStart = metricsEnabled ? $T.nanoTime() : 0", System.class)
+                    .addStatement("$T nextState = this.getNextState()", names.dataTypeName());
         }
 
         pollMethodBuilder.addCode(
                 """
-                        if(nextState == null) {
-                            return;
+                        long nextStateEnd = metricsEnabled ? $1T.nanoTime() : 0;
+                        long pollEnd = nextStateEnd;
+                        if(nextState != null) {
+                            manager.updateState(nextState);
+                        
+                            if(metricsEnabled) {
+                                pollEnd = $1T.nanoTime();
+                                this.updateStateLatency.record(pollEnd - nextStateEnd);
+                            }
+                        }
+                        
+                        if(metricsEnabled) {
+                            this.nextStateLatency.record(nextStateEnd - pollStart);
+                            this.pollLatency.record(pollEnd - pollStart);
                         }
                         
-                        manager.updateState(nextState);
-                        """);
+                        // A time limit that didn't lead anywhere this poll, like when it was ambiguous, fires again next poll
+                        this.firedTimedTransition = -1;
+                        
+                        """,
+                System.class);
+
+        // About once a second at the default loop rate. A throttled state string is flushed then too, even without metrics.
+        pollMethodBuilder.addCode(
+                """
+                        if($L++this.pollsSinceMetricsPublished >= 50) {
+                            this.publishMetrics();
+                        }
+                        """,
+                validator.throttlesStateString() ? "" : "metricsEnabled && ");
 
         builder.addMethod(pollMethodBuilder.build());
     }
 
     private void addGetNextStateMethod() {
-        var pairList = ParameterizedTypeName.get(
-                ClassName.get(List.class),
-                validator.pairClassName()
-        );
-        var pairSet = ParameterizedTypeName.get(
-                ClassName.get(Set.class),
-                validator.pairClassName()
-        );
-
         MethodSpec.Builder getNextStateMethodBuilder = MethodSpec
                 .methodBuilder("getNextState")
                 .addModifiers(Modifier.PRIVATE)
                 .returns(names.dataTypeName())
-                .addComment("Map of our input specifiers to list of valid outputs")
+                .addComment("Every collection used here is preallocated, so polling without a transition creates no garbage")
                 .addCode("""
-                                $1T possibleOptions = new $2T<>();
-                                for(var entry : this.transitionWhenCache.entrySet()) {
-                                    var supplier = entry.getKey();
+                                var suppliers = this.transitionWhenSupplierCache;
+                                var countdowns = this.transitionWhenCountdownCache;
+                                var values = this.transitionWhenValueCache;
+                                var latencies = this.transitionWhenLatencyCache;
+                                boolean metricsEnabled = this.metricsEnabled;
+                                var firedSupplierMask = this.firedSupplierMask;
+                                $2T.fill(firedSupplierMask, 0);
+                                this.firedSupplierCache = suppliers;
+                                this.firedTargetCache = this.transitionWhenTargetCache;
+                                this.firedLatencyCache = latencies;
+                                
+                                for(int i = 0; i < suppliers.length; i++) {
+                                    // Throttled suppliers reuse their last value until their countdown runs out
+                                    boolean value;
+                                    if(countdowns[i] > 0) {
+                                        countdowns[i]--;
+                                        value = values[i];
+                                    } else if(metricsEnabled) {
+                                        long start = $3T.nanoTime();
+                                        value = suppliers[i].getAsBoolean();
+                                        latencies[i].record($3T.nanoTime() - start);
+                                        values[i] = value;
+                                        countdowns[i] = this.transitionWhenDivisorCache[i] - 1;
+                                    } else {
+                                        value = suppliers[i].getAsBoolean();
+                                        values[i] = value;
+                                        countdowns[i] = this.transitionWhenDivisorCache[i] - 1;
+                                    }
+                                
+                                    if(value) {
+                                        firedSupplierMask[i >>> 6] |= 1L << i;
+                                    }
+                                }
                                 
-                                    if(supplier.getAsBoolean()) {
-                                        possibleOptions.addAll(entry.getValue());
+                                var activeTransitions = this.activeTransitions;
+                                activeTransitions.clear();
+                                
+                                for(int word = 0; word < firedSupplierMask.length; word++) {
+                                    for(long mask = firedSupplierMask[word]; mask != 0; mask &= mask - 1) {
+                                        activeTransitions.or(this.transitionWhenTargetCache[(word << 6) + Long.numberOfTrailingZeros(mask)]);
                                     }
                                 }
                                 
-                                if(this.timerCache != null && this.timerCache.hasElapsed(this.timeLimitCache.$5L())) {
-                                    possibleOptions.add(new $4T(this.timerFromStateCache, this.timeLimitCache.$6L()));
+                                activeTransitions.or(this.pendingTransitions);
+                                this.pendingTransitions.clear();
+                                
+                                // An expired time limit keeps firing every poll until a transition actually happens
+                                this.clockTime = this.clock.nowMicros();
+                                if(this.clockTime >= this.nextDeadline) {
+                                    activeTransitions.set(this.nextDeadlineTransition);
+                                    this.firedTimedTransition = this.nextDeadlineTransition;
                                 }
                                 
-                                if(possibleOptions.isEmpty()) {
+                                int numActiveTransitions = activeTransitions.cardinality();
+                                if(numActiveTransitions == 0) {
                                     return null;
-                                } else if(possibleOptions.size() == 1) {
-                                    return possibleOptions.get(0).$3L();
+                                } else if(numActiveTransitions == 1) {
+                                    return this.transitions.get(activeTransitions.nextSetBit(0)).$1L();
                                 }
                                 """,
-                        pairList,
-                        ArrayList.class,
                         validator instanceof EnumValidator ? "getSecond" : "b",
-                        validator.pairClassName(),
-                        validator instanceof EnumValidator ? "getSecond" : "time",
-                        validator instanceof EnumValidator ? "getFirst" : "data"
+                        Arrays.class,
+                        System.class
                 );
 
-
         if (validator instanceof RecordValidator) {
             getNextStateMethodBuilder
                     .addCode("""
-                                    $1T finalResults = new $2T<>();
-                                    $4T seen = new $5T<>(possibleOptions);
-                                    while(!possibleOptions.isEmpty()) {
-                                        $1T mergedResults = new $2T<>();
-                                    
-                                        $3T option = possibleOptions.remove(0);
-                                        boolean mergedThisOne = false;
-                                        for(var other : possibleOptions) {
-                                            if(option.equals(other)) {
-                                                continue;
-                                            }
-                                            if(option.a().canMerge(other.a()) && option.b().canMerge(other.b())) {
-                                                var newPair = new $3T(option.a().merge(other.a()), option.b().merge(other.b()));
-                                                if(seen.contains(newPair)) {
-                                                    continue;
-                                                }
-                                    
-                                                mergedResults.add(newPair);
-                                                mergedThisOne = true;
-                                                seen.add(newPair);
-                                            }
-                                        }
-                                    
-                                        if(!mergedThisOne) {
-                                            finalResults.add(option);
-                                        }
-                                    
-                                        possibleOptions.addAll(mergedResults);
-                                    }
-                                    
-                                    // Get the only item
-                                    if(finalResults.size() == 1) {
-                                        return finalResults.get(0).b();
-                                    }
                                     
-                                    $1T bestOptions = new $2T<>();
-                                    int bestNumElements = 0;
-                                    for(var option : finalResults) {
-                                        int ourNumElements = option.a().numElements();
-                                        if(ourNumElements < bestNumElements) {
-                                            continue;
-                                        } else if(ourNumElements > bestNumElements) {
-                                            bestOptions = new $2T<>();
-                                            bestNumElements = ourNumElements;
-                                        }
-                                        bestOptions.add(option);
+                                    var resolvedState = this.mergeResolutionCache.get(activeTransitions);
+                                    if(resolvedState == null) {
+                                        resolvedState = this.mergeTransitions(activeTransitions);
+                                        this.mergeResolutionCache.put(($1T) activeTransitions.clone(), resolvedState);
                                     }
                                     
-                                    return bestOptions.get(0).b();
+                                    return resolvedState;
                                     """,
-                            pairList,
-                            ArrayList.class,
-                            validator.pairClassName(),
-                            pairSet,
-                            HashSet.class
+                            BitSet.class
                     );
         } else {
             getNextStateMethodBuilder.addStatement("return null");
         }
 
         builder.addMethod(getNextStateMethodBuilder.build());
+
+        if (!(validator instanceof RecordValidator)) {
+            return;
+        }
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("mergeTransitions")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(BitSet.class, "activeTransitions")
+                .returns(names.dataTypeName())
+                .addCode("""
+                                var possibleOptions = this.possibleOptions;
+                                var finalResults = this.finalResults;
+                                var mergedResults = this.mergedResults;
+                                var seen = this.seenOptions;
+                                possibleOptions.clear();
+                                finalResults.clear();
+                                seen.clear();
+                                
+                                for(int id = activeTransitions.nextSetBit(0); id >= 0; id = activeTransitions.nextSetBit(id + 1)) {
+                                    possibleOptions.add(this.transitions.get(id));
+                                    seen.add(this.transitions.get(id));
+                                }
+                                
+                                while(!possibleOptions.isEmpty()) {
+                                    mergedResults.clear();
+                                
+                                    $1T option = possibleOptions.remove(0);
+                                    boolean mergedThisOne = false;
+                                    for(int i = 0; i < possibleOptions.size(); i++) {
+                                        var other = possibleOptions.get(i);
+                                        if(option.equals(other)) {
+                                            continue;
+                                        }
+                                        if(option.a().canMerge(other.a()) && option.b().canMerge(other.b())) {
+                                            var newPair = new $1T(option.a().merge(other.a()), option.b().merge(other.b()));
+                                            if(seen.contains(newPair)) {
+                                                continue;
+                                            }
+                                
+                                            mergedResults.add(newPair);
+                                            mergedThisOne = true;
+                                            seen.add(newPair);
+                                        }
+                                    }
+                                
+                                    if(!mergedThisOne) {
+                                        finalResults.add(option);
+                                    }
+                                
+                                    for(int i = 0; i < mergedResults.size(); i++) {
+                                        possibleOptions.add(mergedResults.get(i));
+                                    }
+                                }
+                                
+                                // Get the only item
+                                if(finalResults.size() == 1) {
+                                    return finalResults.get(0).b();
+                                }
+                                
+                                // The first option with the most elements wins
+                                $1T bestOption = null;
+                                int bestNumElements = 0;
+                                for(int i = 0; i < finalResults.size(); i++) {
+                                    var option = finalResults.get(i);
+                                    int ourNumElements = option.a().numElements();
+                                    if(bestOption == null || ourNumElements > bestNumElements) {
+                                        bestOption = option;
+                                        bestNumElements = ourNumElements;
+                                    }
+                                }
+                                
+                                return bestOption.b();
+                                """,
+                        validator.pairClassName()
+                )
+                .build()
+        );
+    }
+
+    private void addCompileByToStateMethod(String methodName, String mapName, String cacheName, Class<?> type) {
+        builder.addMethod(MethodSpec
+                .methodBuilder(methodName)
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(compiledStateClassName(), "compiled")
+                .addParameter(subDataSetType, "subData")
+                .addCode("""
+                                $1T byId = new $2T<>();
+                                
+                                for(var state : subData) {
+                                    if (!this.$4L.containsKey(state)) {
+                                        continue;
+                                    }
+                                
+                                    for(var entry : this.$4L.get(state).entrySet()) {
+                                        int id = this.subDataId(entry.getKey());
+                                        while(byId.size() <= id) {
+                                            byId.add(null);
+                                        }
+                                
+                                        if(byId.get(id) == null) {
+                                            byId.set(id, new $2T<>());
+                                        }
+                                
+                                        byId.get(id).addAll(entry.getValue());
+                                    }
+                                }
+                                
+                                compiled.$5L = new $3T[byId.size()][];
+                                for(int id = 0; id < byId.size(); id++) {
+                                    var values = byId.get(id);
+                                    if(values != null) {
+                                        compiled.$5L[id] = values.toArray(new $3T[0]);
+                                    }
+                                }
+                                """,
+                        ParameterizedTypeName.get(ClassName.get(List.class), ParameterizedTypeName.get(List.class, type)),
+                        ArrayList.class,
+                        type,
+                        mapName,
+                        cacheName)
+                .build()
+        );
     }
 
     private void addRunTransitionCommandsMethod() {
         builder.addMethod(MethodSpec
                 .methodBuilder("runTransitionCommands")
                 .addModifiers(Modifier.PRIVATE)
-                .addParameter(subDataSetType, "nextStates")
+                .addParameter(Command[][].class, "transitionCommandCache")
+                .addParameter(int[].class, "nextStateIds")
                 .addCode("""
-                        nextStates.forEach(state -> {
-                            if(! transitionCommandCache.containsKey(state)) {
-                                return;
+                        for(int id : nextStateIds) {
+                            var commands = id < transitionCommandCache.length ? transitionCommandCache[id] : null;
+                            if(commands == null) {
+                                continue;
                             }
                         
-                            for(var command : transitionCommandCache.get(state)) {
+                            for(var command : commands) {
                                 $1T.getInstance().schedule(command);
                             }
-                        });
+                        }
                         """, CommandScheduler.class)
                 .build()
         );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("runTransitionActions")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(Runnable[][].class, "transitionActionCache")
+                .addParameter(int[].class, "nextStateIds")
+                .addCode("""
+                        for(int id : nextStateIds) {
+                            var actions = id < transitionActionCache.length ? transitionActionCache[id] : null;
+                            if(actions == null) {
+                                continue;
+                            }
+                        
+                            for(var action : actions) {
+                                action.run();
+                            }
+                        }
+                        """)
+                .build()
+        );
     }
 
     private void addVerifyStateEnabledCommands() {
@@ -756,14 +1765,20 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
                         .stream()
                         .sorted(Entry.comparingByValue())
                         .forEach((e) -> {
-                            verifyStateEnabledMethodBuilder.beginControlFlow("if(state instanceof $T)", e.getKey());
+                            if (validator instanceof RecordValidator rv && rv.presenceMask) {
+                                verifyStateEnabledMethodBuilder.beginControlFlow("if((($T) state).presenceMask() == $L)", rv.slotsClassName(), rv.presenceMask(e.getKey()));
+                            } else {
+                                verifyStateEnabledMethodBuilder.beginControlFlow("if(state instanceof $T)", e.getKey());
+                            }
 
                             String fieldName = e.getValue();
                             if (key.equals(FROM)) {
                                 verifyStateEnabledMethodBuilder
                                         .beginControlFlow("if(!this.$L)", fieldName)
                                         .addStatement("this.$L = true", fieldName)
-                                        .addStatement("this.currentSubData = this.generateFromSubDataStates(currentState)")
+                                        .addComment("Compiled states were built without this field")
+                                        .addStatement("this.clearCompiledStates()")
+                                        .addStatement("this.regenerateCaches()")
                                         .endControlFlow();
                             } else {
                                 verifyStateEnabledMethodBuilder.addStatement("this.$L = true", fieldName);
@@ -842,121 +1857,367 @@ public class StateMachineBuilder implements TypedBuilder<TypeSpec> {
 
     private void addRegenerateMethods() {
         builder.addMethod(MethodSpec
-                .methodBuilder("regenerateTransitionWhenCache")
+                .methodBuilder("regenerateCaches")
+                .addModifiers(Modifier.PRIVATE)
+                .addStatement("this.applyCompiledState(this.compiledState(this.currentState))")
+                .build()
+        );
+
+        var compiledStateMethod = MethodSpec
+                .methodBuilder("compiledState")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(validator.originalTypeName(), "state")
+                .returns(compiledStateClassName());
+
+        var clearCompiledStatesMethod = MethodSpec
+                .methodBuilder("clearCompiledStates")
+                .addModifiers(Modifier.PRIVATE)
+                .addStatement("this.compiledStates.clear()");
+
+        if (validator instanceof RecordValidator rv && rv.packsStates) {
+            compiledStateMethod.addCode("""
+                            int packedState = (int) $1T.packRecord(state);
+                            var compiled = this.compiledStatesByPackedState[packedState];
+                            if(compiled == null) {
+                                compiled = this.buildCompiledState(state);
+                                this.compiledStatesByPackedState[packedState] = compiled;
+                            }
+                            
+                            return compiled;
+                            """,
+                    rv.wrappedClassName());
+
+            clearCompiledStatesMethod.addStatement("$T.fill(this.compiledStatesByPackedState, null)", Arrays.class);
+        } else {
+            compiledStateMethod.addCode("""
+                    var compiled = this.compiledStates.get(state);
+                    if(compiled == null) {
+                        compiled = this.buildCompiledState(state);
+                        this.compiledStates.put(state, compiled);
+                    }
+                    
+                    return compiled;
+                    """);
+        }
+
+        builder.addMethod(compiledStateMethod.build());
+
+        builder.addMethod(clearCompiledStatesMethod.build());
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("buildCompiledState")
                 .addModifiers(Modifier.PRIVATE)
+                .addParameter(validator.originalTypeName(), "state")
+                .returns(compiledStateClassName())
                 .addCode("""
-                                this.transitionWhenCache = new $1T<>();
+                                var fromSubData = $1T.unmodifiableSet(this.generateFromSubDataStates(state));
+                                var compiled = this.compileState(fromSubData);
+                                compiled.fromSubData = fromSubData;
+                                compiled.toSubData = $1T.unmodifiableSet(this.generateToSubDataStates(state));
                                 
-                                this.currentSubData.forEach(state -> {
+                                compiled.fromSubDataIds = new $2T();
+                                for(var subData : fromSubData) {
+                                    compiled.fromSubDataIds.set(this.subDataId(subData));
+                                }
+                                
+                                compiled.toSubDataIds = compiled.toSubData.stream().mapToInt(this::subDataId).toArray();
+                                compiled.stateName = state.toString();
+                                return compiled;
+                                """,
+                        Collections.class,
+                        BitSet.class)
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("compileState")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(subDataSetType, "subData")
+                .returns(compiledStateClassName())
+                .addStatement("var compiled = new $T()", compiledStateClassName())
+                .addStatement("this.compileTransitionWhenCache(compiled, subData)")
+                .addStatement("this.compileCommandCache(compiled, subData)")
+                .addStatement("this.compileActionCache(compiled, subData)")
+                .addStatement("this.compileFailLoudlyCache(compiled, subData)")
+                .addStatement("this.compileTimerCache(compiled, subData)")
+                .addStatement("return compiled")
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("applyCompiledState")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(compiledStateClassName(), "compiled")
+                .addCode("""
+                                this.transitionWhenSupplierCache = compiled.transitionWhenSupplierCache;
+                                this.transitionWhenTargetCache = compiled.transitionWhenTargetCache;
+                                this.transitionWhenDivisorCache = compiled.transitionWhenDivisorCache;
+                                this.transitionWhenCountdownCache = compiled.transitionWhenCountdownCache;
+                                this.transitionWhenValueCache = compiled.transitionWhenValueCache;
+                                this.transitionWhenLatencyCache = compiled.transitionWhenLatencyCache;
+                                this.currentSubData = compiled.fromSubData;
+                                this.currentSubDataIds = compiled.fromSubDataIds;
+                                this.transitionCommandCache = compiled.transitionCommandCache;
+                                this.transitionActionCache = compiled.transitionActionCache;
+                                this.failLoudlyCache = compiled.failLoudlyCache;
+                                
+                                // Transition actions and commands run after this, so they see the new state's triggers
+                                for(int i = 0; i < this.triggerSlotCount; i++) {
+                                    var slot = this.triggerSlots[i];
+                                    slot.active = compiled.fromSubDataIds.get(slot.id);
+                                }
+                                
+                                this.timedSubDataIdsCache = compiled.timedSubDataIds;
+                                this.timeLimitMicrosCache = compiled.timeLimitMicros;
+                                this.timedTransitionIdsCache = compiled.timedTransitionIds;
+                                this.scheduleNextDeadline();
+                                
+                                // Every supplier is evaluated on the first poll after the state changes
+                                $1T.fill(compiled.transitionWhenCountdownCache, 0);
+                                
+                                // Grow the mask if needed, keeping what fired during the last poll readable
+                                int maskWords = (compiled.transitionWhenSupplierCache.length + 63) >>> 6;
+                                if (this.firedSupplierMask.length < maskWords) {
+                                    this.firedSupplierMask = $1T.copyOf(this.firedSupplierMask, maskWords);
+                                }
+                                """,
+                        Arrays.class)
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("compileTransitionWhenCache")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(compiledStateClassName(), "compiled")
+                .addParameter(subDataSetType, "subData")
+                .addCode("""
+                                $1T suppliers = new $2T<>();
+                                $3T targets = new $2T<>();
+                                
+                                subData.forEach(state -> {
                                     if (!this.transitionWhenMap.containsKey(state)) {
                                         return;
                                     }
                                 
                                     for (var fromEntry : this.transitionWhenMap.get(state).entrySet()) {
                                         for (var supplier : fromEntry.getValue()) {
-                                            if (!this.transitionWhenCache.containsKey(supplier)) {
-                                                this.transitionWhenCache.put(supplier, new $2T<>());
+                                            int index = suppliers.indexOf(supplier);
+                                            if (index == -1) {
+                                                index = suppliers.size();
+                                                suppliers.add(supplier);
+                                                targets.add(new $4T());
                                             }
                                 
-                                            this.transitionWhenCache.get(supplier).add(new $3T(state, fromEntry.getKey()));
+                                            targets.get(index).set(this.transitionId(state, fromEntry.getKey()));
                                         }
                                     }
                                 });
+                                
+                                compiled.transitionWhenSupplierCache = suppliers.toArray(new $5T[0]);
+                                compiled.transitionWhenTargetCache = targets.toArray(new $4T[0]);
+                                
+                                compiled.transitionWhenDivisorCache = new int[suppliers.size()];
+                                for (int i = 0; i < suppliers.size(); i++) {
+                                    compiled.transitionWhenDivisorCache[i] = this.transitionWhenPollDivisors.getOrDefault(suppliers.get(i), 1);
+                                }
+                                compiled.transitionWhenCountdownCache = new int[suppliers.size()];
+                                compiled.transitionWhenValueCache = new boolean[suppliers.size()];
+                                
+                                compiled.transitionWhenLatencyCache = new $6T[suppliers.size()];
+                                for (int i = 0; i < suppliers.size(); i++) {
+                                    compiled.transitionWhenLatencyCache[i] = this.supplierLatency(suppliers.get(i));
+                                }
                                 """,
-                        HashMap.class,
+                        ParameterizedTypeName.get(List.class, BooleanSupplier.class),
                         ArrayList.class,
-                        validator.pairClassName()
+                        ParameterizedTypeName.get(List.class, BitSet.class),
+                        BitSet.class,
+                        BooleanSupplier.class,
+                        LatencyStats.class
                 )
                 .build()
         );
 
         builder.addMethod(MethodSpec
-                .methodBuilder("regenerateCommandCache")
+                .methodBuilder("supplierLatency")
                 .addModifiers(Modifier.PRIVATE)
+                .addParameter(BooleanSupplier.class, "supplier")
+                .returns(LatencyStats.class)
                 .addCode("""
-                                this.transitionCommandCache = new $1T<>();
-                                
-                                this.currentSubData.forEach(state -> {
-                                    if (!this.transitionCommandMap.containsKey(state)) {
-                                        return;
+                                var latency = this.supplierLatencies.get(supplier);
+                                if (latency == null) {
+                                    latency = new $1T();
+                                    if (this.metricsEnabled) {
+                                        this.supplierLatencyPublishers.add(new $2T(this.metricsTable.getSubTable("Suppliers/" + this.supplierLatencies.size()), latency));
                                     }
+                                    this.supplierLatencies.put(supplier, latency);
+                                }
                                 
-                                    for(var entry : this.transitionCommandMap.get(state).entrySet()) {
-                                        var toState = entry.getKey();
-                                
-                                        $2T commandList;
-                                        if(this.transitionCommandCache.containsKey(toState)) {
-                                            commandList = this.transitionCommandCache.get(toState);
-                                        } else {
-                                            commandList = new $3T<>();
-                                            this.transitionCommandCache.put(toState, commandList);
-                                        }
-                                
-                                        commandList.addAll(entry.getValue());
-                                    }
-                                });
+                                return latency;
                                 """,
-                        HashMap.class,
-                        commandListType,
-                        ArrayList.class)
+                        LatencyStats.class,
+                        LatencyStatsPublisher.class
+                )
                 .build()
         );
 
+        addCompileByToStateMethod("compileCommandCache", "transitionCommandMap", "transitionCommandCache", Command.class);
+        addCompileByToStateMethod("compileActionCache", "transitionActionMap", "transitionActionCache", Runnable.class);
+
         builder.addMethod(MethodSpec
-                .methodBuilder("regenerateFailLoudlyCache")
+                .methodBuilder("compileFailLoudlyCache")
                 .addModifiers(Modifier.PRIVATE)
+                .addParameter(compiledStateClassName(), "compiled")
+                .addParameter(subDataSetType, "subData")
                 .addCode("""
-                                this.failLoudlyCache = new $1T<>();
+                                compiled.failLoudlyCache = new $1T();
                                 
-                                this.currentSubData.forEach(state -> {
+                                for(var state : subData) {
                                     if (!this.failLoudlyMap.containsKey(state)) {
-                                        return;
+                                        continue;
                                     }
                                 
-                                    this.failLoudlyCache.addAll(this.failLoudlyMap.get(state));
-                                });
+                                    for(var toState : this.failLoudlyMap.get(state)) {
+                                        compiled.failLoudlyCache.set(this.subDataId(toState));
+                                    }
+                                }
                                 """,
-                        HashSet.class)
+                        BitSet.class)
                 .build()
         );
 
-        CodeBlock timerCacheNumElementsLimiter;
+        CodeBlock timedStateOrder;
 
         if (validator instanceof RecordValidator) {
-            timerCacheNumElementsLimiter = CodeBlock.builder()
-                    .addStatement("setCache = setCache || this.timeLimitCache.time().equals(timeLimit.time()) && this.timerFromStateCache.numElements() < timeLimit.data().numElements()")
+            // More specific sub states come first, so they win when two deadlines are the same
+            timedStateOrder = CodeBlock.builder()
+                    .addStatement("timedStates.sort($T.comparingInt($T::numElements).reversed())", Comparator.class, names.dataTypeName())
                     .build();
         } else {
-            timerCacheNumElementsLimiter = CodeBlock.builder().build();
+            timedStateOrder = CodeBlock.builder().build();
         }
 
         builder.addMethod(MethodSpec
-                .methodBuilder("regenerateTimerCache")
+                .methodBuilder("compileTimerCache")
                 .addModifiers(Modifier.PRIVATE)
+                .addParameter(compiledStateClassName(), "compiled")
+                .addParameter(subDataSetType, "subData")
                 .addCode("""
-                                this.timerCache = null;
-                                this.timeLimitCache = null;
-                                this.timerFromStateCache = null;
-                                
-                                for(var subData : this.currentSubData) {
-                                    if(! timerMap.containsKey(subData)) {
-                                        continue;
+                                $1T timedStates = new $2T<>();
+                                int numTimeLimits = 0;
+                                for(var state : subData) {
+                                    if(timeLimitMap.containsKey(state)) {
+                                        timedStates.add(state);
+                                        numTimeLimits += timeLimitMap.get(state).size();
                                     }
+                                }
+                                $3L
+                                compiled.timedSubDataIds = new int[numTimeLimits];
+                                compiled.timeLimitMicros = new long[numTimeLimits];
+                                compiled.timedTransitionIds = new int[numTimeLimits];
                                 
-                                    var timeLimit = timeLimitMap.get(subData);
+                                int i = 0;
+                                for(var state : timedStates) {
+                                    int id = this.subDataId(state);
                                 
-                                    // If we have no time limit yet or this new time limit is shorter than our current one
-                                    boolean setCache = this.timeLimitCache == null || this.timeLimitCache.$1L().gt(timeLimit.$1L());
-                                    $2L
-                                    if(setCache) {
-                                        this.timerCache = timerMap.get(subData);
-                                        this.timeLimitCache = timeLimitMap.get(subData);
-                                        this.timerFromStateCache = subData;
+                                    for(var timeLimit : timeLimitMap.get(state)) {
+                                        compiled.timedSubDataIds[i] = id;
+                                        compiled.timeLimitMicros[i] = $6T.round(timeLimit.$4L().in($7T.Microseconds));
+                                        compiled.timedTransitionIds[i] = this.transitionId(state, timeLimit.$5L());
+                                        i++;
                                     }
                                 }
                                 """,
+                        ParameterizedTypeName.get(ClassName.get(List.class), names.dataTypeName()),
+                        ArrayList.class,
+                        timedStateOrder,
                         validator instanceof EnumValidator ? "getSecond" : "time",
-                        timerCacheNumElementsLimiter
+                        validator instanceof EnumValidator ? "getFirst" : "data",
+                        Math.class,
+                        Units.class
+                )
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("scheduleNextDeadline")
+                .addModifiers(Modifier.PRIVATE)
+                .addCode("""
+                                this.nextDeadline = $T.MAX_VALUE;
+                                this.nextDeadlineTransition = -1;
+                                
+                                // Ties go to the sub state that comes first, which is the more specific one for records
+                                for(int i = 0; i < this.timedSubDataIdsCache.length; i++) {
+                                    if(this.expiredTimedTransitions.get(this.timedTransitionIdsCache[i])) {
+                                        continue;
+                                    }
+
+                                    long deadline = this.subDataEntryTimes[this.timedSubDataIdsCache[i]] + this.timeLimitMicrosCache[i];
+                                    if(deadline < this.nextDeadline) {
+                                        this.nextDeadline = deadline;
+                                        this.nextDeadlineTransition = this.timedTransitionIdsCache[i];
+                                    }
+                                }
+                                """,
+                        Long.class)
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("subDataId")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(names.dataTypeName(), "state")
+                .returns(int.class)
+                .addCode("""
+                                var id = this.subDataIds.get(state);
+                                if(id == null) {
+                                    id = this.subDataById.size();
+                                    this.subDataIds.put(state, id);
+                                    this.subDataById.add(state);
+                                
+                                    if(id >= this.subDataEntryTimes.length) {
+                                        this.subDataEntryTimes = $T.copyOf(this.subDataEntryTimes, id * 2);
+                                    }
+                                }
+                                
+                                return id;
+                                """,
+                        Arrays.class)
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("hasTransitionId")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(names.dataTypeName(), "fromState")
+                .addParameter(names.dataTypeName(), "toState")
+                .returns(boolean.class)
+                .addStatement("var toStateMap = this.transitionIdMap.get(fromState)")
+                .addStatement("return toStateMap != null && toStateMap.containsKey(toState)")
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("transitionId")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(names.dataTypeName(), "fromState")
+                .addParameter(names.dataTypeName(), "toState")
+                .returns(int.class)
+                .addCode("""
+                                if(!this.transitionIdMap.containsKey(fromState)) {
+                                    this.transitionIdMap.put(fromState, $1L);
+                                }
+                                
+                                var toStateMap = this.transitionIdMap.get(fromState);
+                                if(!toStateMap.containsKey(toState)) {
+                                    toStateMap.put(toState, this.transitions.size());
+                                    this.transitions.add(new $2T(fromState, toState));
+                                }
+                                
+                                return toStateMap.get(toState);
+                                """,
+                        names.newDataMap(),
+                        validator.pairClassName()
                 )
                 .build()
         );
@@ -10,7 +10,6 @@ import bot.den.foxflow.validator.EnumValidator;
 import bot.den.foxflow.validator.RecordValidator;
 import com.palantir.javapoet.*;
 import edu.wpi.first.units.measure.Time;
-import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.event.EventLoop;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.button.Trigger;
@@ -31,8 +30,9 @@ public class StateManagerBuilder implements TypedBuilder<TypeSpec> {
                 .addModifiers(Modifier.PUBLIC);
 
         addWhenMethod();
+        addSignalMethod();
         addAfterMethod();
-        addRunMethod();
+        addRunMethods();
         addFailLoudlyMethod();
         addTriggerMethod();
         addUpdateStateMethod();
@@ -45,11 +45,28 @@ public class StateManagerBuilder implements TypedBuilder<TypeSpec> {
                 .addParameter(names.dataTypeName(), "fromState")
                 .addParameter(names.dataTypeName(), "toState")
                 .addParameter(BooleanSupplier.class, "booleanSupplier")
+                .addStatement("transitionWhen(fromState, toState, booleanSupplier, 1)")
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("transitionWhen")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(names.dataTypeName(), "fromState")
+                .addParameter(names.dataTypeName(), "toState")
+                .addParameter(BooleanSupplier.class, "booleanSupplier")
+                .addParameter(int.class, "pollDivisor")
                 .addCode("""
+                                $1T.this.verifyNotSealed();
+                                
+                                if(pollDivisor < 1) {
+                                    throw new $4T("The poll divisor has to be at least 1, but was " + pollDivisor);
+                                }
+                                
                                 $1T.this.verifyFromStateEnabled(fromState);
                                 
                                 if(!$1T.this.transitionWhenMap.containsKey(fromState)) {
-                                    $1T.this.transitionWhenMap.put(fromState, new $2T<>());
+                                    $1T.this.transitionWhenMap.put(fromState, $2L);
                                 }
                                 
                                 var fromStateMap = $1T.this.transitionWhenMap.get(fromState);
@@ -58,15 +75,72 @@ public class StateManagerBuilder implements TypedBuilder<TypeSpec> {
                                     fromStateMap.put(toState, new $3T<>());
                                 }
                                 
+                                // Conditions are only shared between machines when the caller registered them as a Signal
                                 fromStateMap.get(toState).add(booleanSupplier);
+                                $1T.this.transitionId(fromState, toState);
+                                
+                                // A condition used by several transitions is evaluated as often as its most frequent use asks for
+                                $1T.this.transitionWhenPollDivisors.merge(booleanSupplier, pollDivisor, Math::min);
+                                
+                                // Compiled states are reused until the setup changes, like it just did
+                                $1T.this.clearCompiledStates();
                                 
                                 if($1T.this.currentSubData.contains(fromState)) {
-                                    $1T.this.regenerateTransitionWhenCache();
+                                    $1T.this.regenerateCaches();
                                 }
                                 """,
                         names.stateMachineClassName(),
-                        HashMap.class,
-                        ArrayList.class)
+                        names.newDataMap(),
+                        ArrayList.class,
+                        IllegalArgumentException.class)
+                .build()
+        );
+    }
+
+    private void addSignalMethod() {
+        builder.addMethod(MethodSpec
+                .methodBuilder("transitionOnSignal")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(names.dataTypeName(), "fromState")
+                .addParameter(names.dataTypeName(), "toState")
+                .addCode("""
+                                $1T.this.verifyNotSealed();
+                                $1T.this.verifyFromStateEnabled(fromState);
+                                
+                                // Kept so sealing can check it like every other transition
+                                if(!$1T.this.signalTransitionMap.containsKey(fromState)) {
+                                    $1T.this.signalTransitionMap.put(fromState, $2L);
+                                }
+                                
+                                $1T.this.signalTransitionMap.get(fromState).add(toState);
+                                
+                                // Signals can only be sent for transitions that have an id, so sealing doesn't rule this one out
+                                $1T.this.transitionId(fromState, toState);
+                                """,
+                        names.stateMachineClassName(),
+                        names.newDataSet())
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("signal")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(names.dataTypeName(), "fromState")
+                .addParameter(names.dataTypeName(), "toState")
+                .addCode("""
+                                // The first signal for a transition sets it up, which a sealed machine can't do anymore
+                                if(!$1T.this.hasTransitionId(fromState, toState)) {
+                                    this.transitionOnSignal(fromState, toState);
+                                } else {
+                                    $1T.this.verifyFromStateEnabled(fromState);
+                                }
+                                
+                                // Signals only count for the state we're in, they aren't remembered for later
+                                if($1T.this.currentSubData.contains(fromState)) {
+                                    $1T.this.pendingTransitions.set($1T.this.transitionId(fromState, toState));
+                                }
+                                """,
+                        names.stateMachineClassName())
                 .build()
         );
     }
@@ -79,63 +153,88 @@ public class StateManagerBuilder implements TypedBuilder<TypeSpec> {
                 .addParameter(names.dataTypeName(), "toState")
                 .addParameter(Time.class, "time")
                 .addCode("""
+                                $1T.this.verifyNotSealed();
                                 $1T.this.verifyFromStateEnabled(fromState);
                                 
-                                if($1T.this.timeLimitMap.containsKey(fromState)) {
-                                    throw new $4T(
-                                            fromState,
-                                            toState,
-                                            $1T.this.timeLimitMap.get(fromState).$5L()
-                                    );
+                                boolean alreadyTimed = $1T.this.timeLimitMap.containsKey(fromState);
+                                if(!alreadyTimed) {
+                                    $1T.this.timeLimitMap.put(fromState, new $5T<>());
                                 }
                                 
-                                var timeRecord = new $2T(toState, time);
-                                $1T.this.timeLimitMap.put(fromState, timeRecord);
-                                $1T.this.timerMap.put(fromState, new $3T());
+                                // Several time limits can escalate from one state, but two of them running out together is ambiguous
+                                var timeLimits = $1T.this.timeLimitMap.get(fromState);
+                                for(var timeLimit : timeLimits) {
+                                    if(timeLimit.$4L().equals(toState) || timeLimit.$6L().isEquivalent(time)) {
+                                        throw new $3T(fromState, toState, timeLimit.$4L());
+                                    }
+                                }
+                                
+                                timeLimits.add(new $2T(toState, time));
+                                $1T.this.transitionId(fromState, toState);
+                                
+                                // Compiled states are reused until the setup changes, like it just did
+                                $1T.this.clearCompiledStates();
                                 
                                 if($1T.this.currentSubData.contains(fromState)) {
-                                    $1T.this.regenerateTimerCache();
-                                    $1T.this.timerMap.get(fromState).start();
+                                    // A state we're already in starts counting down from the last time we read the clock,
+                                    // unless it's already counting down for another time limit
+                                    if(!alreadyTimed) {
+                                        $1T.this.subDataEntryTimes[$1T.this.subDataId(fromState)] = $1T.this.clockTime;
+                                    }
+                                
+                                    $1T.this.regenerateCaches();
                                 }
                                 """,
                         names.stateMachineClassName(),
                         names.validator().timeClassName(),
-                        Timer.class,
                         AmbiguousTransitionSetup.class,
-                        names.validator() instanceof EnumValidator ? "getFirst" : "data")
+                        names.validator() instanceof EnumValidator ? "getFirst" : "data",
+                        ArrayList.class,
+                        names.validator() instanceof EnumValidator ? "getSecond" : "time")
                 .build()
         );
     }
 
-    private void addRunMethod() {
+    private void addRunMethods() {
+        addRunMethod("run", "transitionCommandMap", Command.class, "command");
+        addRunMethod("runImmediately", "transitionActionMap", Runnable.class, "action");
+    }
+
+    private void addRunMethod(String methodName, String mapName, Class<?> type, String parameterName) {
         builder.addMethod(MethodSpec
-                .methodBuilder("run")
+                .methodBuilder(methodName)
                 .addModifiers(Modifier.PUBLIC)
                 .addParameter(names.dataTypeName(), "fromState")
                 .addParameter(names.dataTypeName(), "toState")
-                .addParameter(Command.class, "command")
+                .addParameter(type, parameterName)
                 .addCode("""
+                                $1T.this.verifyNotSealed();
                                 $1T.this.verifyFromStateEnabled(fromState);
                                 $1T.this.verifyToStateEnabled(toState);
                                 
-                                if(!$1T.this.transitionCommandMap.containsKey(fromState)) {
-                                    $1T.this.transitionCommandMap.put(fromState, new $2T<>());
+                                if(!$1T.this.$4L.containsKey(fromState)) {
+                                    $1T.this.$4L.put(fromState, $2L);
                                 }
                                 
-                                var fromStateMap = $1T.this.transitionCommandMap.get(fromState);
+                                var fromStateMap = $1T.this.$4L.get(fromState);
                                 if(!fromStateMap.containsKey(toState)) {
                                     fromStateMap.put(toState, new $3T<>());
                                 }
                                 
-                                fromStateMap.get(toState).add(command);
+                                fromStateMap.get(toState).add($5L);
+                                
+                                // Compiled states are reused until the setup changes, like it just did
+                                $1T.this.clearCompiledStates();
                                 
                                 if($1T.this.currentSubData.contains(fromState)) {
-                                    $1T.this.regenerateCommandCache();
+                                    $1T.this.regenerateCaches();
                                 }
                                 """,
                         names.stateMachineClassName(),
-                        HashMap.class,
-                        ArrayList.class)
+                        names.newDataMap(),
+                        ArrayList.class,
+                        mapName,
+                        parameterName)
                 .build()
         );
     }
@@ -147,21 +246,25 @@ public class StateManagerBuilder implements TypedBuilder<TypeSpec> {
                 .addParameter(names.dataTypeName(), "fromState")
                 .addParameter(names.dataTypeName(), "toState")
                 .addCode("""
+                                $1T.this.verifyNotSealed();
                                 $1T.this.verifyFromStateEnabled(fromState);
                                 $1T.this.verifyToStateEnabled(toState);
                                 
                                 if(!$1T.this.failLoudlyMap.containsKey(fromState)) {
-                                    $1T.this.failLoudlyMap.put(fromState, new $2T<>());
+                                    $1T.this.failLoudlyMap.put(fromState, $2L);
                                 }
                                 
                                 $1T.this.failLoudlyMap.get(fromState).add(toState);
                                 
+                                // Compiled states are reused until the setup changes, like it just did
+                                $1T.this.clearCompiledStates();
+                                
                                 if($1T.this.currentSubData.contains(fromState)) {
-                                    $1T.this.regenerateFailLoudlyCache();
+                                    $1T.this.regenerateCaches();
                                 }
                                 """,
                         names.stateMachineClassName(),
-                        HashSet.class)
+                        names.newDataSet())
                 .build()
         );
     }
@@ -177,13 +280,23 @@ public class StateManagerBuilder implements TypedBuilder<TypeSpec> {
                                 $1T.this.verifyFromStateEnabled(state);
                                 
                                 if(! $1T.this.triggerMap.containsKey(state)) {
-                                    var trigger = new Trigger(eventLoop, () -> $1T.this.currentSubData.contains(state));
-                                    triggerMap.put(state, trigger);
+                                    var slot = new $2T($1T.this.subDataId(state));
+                                    slot.active = $1T.this.currentSubDataIds.get(slot.id);
+                                
+                                    // Grown geometrically, so creating lots of triggers doesn't copy the slots every time
+                                    if($1T.this.triggerSlotCount == $1T.this.triggerSlots.length) {
+                                        $1T.this.triggerSlots = $3T.copyOf($1T.this.triggerSlots, Math.max(4, $1T.this.triggerSlotCount * 2));
+                                    }
+                                    $1T.this.triggerSlots[$1T.this.triggerSlotCount++] = slot;
+                                
+                                    triggerMap.put(state, new Trigger(eventLoop, slot));
                                 }
                                 
                                 return triggerMap.get(state);
                                 """,
-                        names.stateMachineClassName()
+                        names.stateMachineClassName(),
+                        StateMachineBuilder.triggerSlotClassName(names),
+                        Arrays.class
                 )
                 .build()
         );
@@ -224,7 +337,23 @@ public class StateManagerBuilder implements TypedBuilder<TypeSpec> {
 
             var code = CodeBlock.builder();
 
-            code.add("$[var nextState = new $T(\n", rv.originalTypeName());
+            if (rv.packsStates) {
+                // Every possible record has a number, so the record for a state we've been in before can be reused
+                code.addStatement("long nextPackedState = $T.packRecord(currentState)", rv.wrappedClassName());
+                for (var field : rv.fields) {
+                    code.addStatement(
+                            "if($1LData != null) nextPackedState += (long) ($1LData.ordinal() - currentState.$1L().ordinal()) * $2T.$3L",
+                            field.name(),
+                            rv.wrappedClassName(),
+                            Util.packedMultiplierName(field.name())
+                    );
+                }
+                code.addStatement("var nextState = recordsByPackedState[(int) nextPackedState]");
+                code.beginControlFlow("if(nextState == null)");
+                code.add("$[nextState = new $T(\n", rv.originalTypeName());
+            } else {
+                code.add("$[var nextState = new $T(\n", rv.originalTypeName());
+            }
 
             var fields = rv.fields;
             for (int i = 0; i < fields.size(); i++) {
@@ -248,60 +377,72 @@ public class StateManagerBuilder implements TypedBuilder<TypeSpec> {
 
             code.add(");$]\n");
 
+            if (rv.packsStates) {
+                code.addStatement("recordsByPackedState[(int) nextPackedState] = nextState");
+                code.endControlFlow();
+            }
+
             updateStateMethodBuilder.addCode(code.build());
         }
 
         updateStateMethodBuilder
                 .addCode("""
-                                var nextToStates = generateToSubDataStates(nextState);
+                                // Each state is compiled the first time it's entered and reused every time after that
+                                var compiled = compiledState(nextState);
+                                var nextToStateIds = compiled.toSubDataIds;
 
-                                if(! $1T.disjoint(failLoudlyCache, nextToStates)) {
-                                    var failLoudly = new $2T("State transition was requested to fail loudly");
-
-                                    throw new $3T(currentState, nextState, failLoudly);
-                                }
+                                // Actions and commands are set up on the state we're leaving, so hold on to them before it's replaced
+                                var transitionActions = transitionActionCache;
+                                var transitionCommands = transitionCommandCache;
 
-                                var nextFromStates = generateFromSubDataStates(nextState);
+                                // Only a poll sets this, so a transition requested any other way doesn't use up a time limit
+                                int timedTransition = firedTimedTransition;
+                                firedTimedTransition = -1;
 
-                                // Stop the current timers that aren't in our new state
-                                for(var currentData : currentSubData) {
-                                    if(!timerMap.containsKey(currentData)) {
-                                        continue; // No timer to stop
-                                    }
+                                for(int toStateId : nextToStateIds) {
+                                    if(failLoudlyCache.get(toStateId)) {
+                                        var failLoudly = new $1T("State transition was requested to fail loudly");
 
-                                    if(nextFromStates.contains(currentData)) {
-                                        continue; // This timer will continue on
+                                        throw new $2T(currentState, nextState, failLoudly);
                                     }
+                                }
 
-                                    var timer = timerMap.get(currentData);
-                                    timer.stop();
-                                    timer.reset();
+                                // The time limit that led here has fired. If we stay in its state, it doesn't fire again until we come back.
+                                if(timedTransition >= 0) {
+                                    expiredTimedTransitions.set(timedTransition);
                                 }
 
-                                // Start timers that aren't in our current state but are in our new
-                                for(var nextData : nextFromStates) {
-                                    if(!timerMap.containsKey(nextData)) {
-                                        continue; // No timer to start
+                                // Timed sub states we're entering count down from now, the ones we stay in keep going
+                                clockTime = clock.nowMicros();
+                                for(int i = 0; i < compiled.timedSubDataIds.length; i++) {
+                                    int timedStateId = compiled.timedSubDataIds[i];
+                                    if(!currentSubDataIds.get(timedStateId)) {
+                                        subDataEntryTimes[timedStateId] = clockTime;
+                                        expiredTimedTransitions.clear(compiled.timedTransitionIds[i]);
                                     }
-
-                                    var timer = timerMap.get(nextData);
-                                    timer.start(); // Start does nothing if the timer is already started
                                 }
 
-                                currentState = nextState;
-                                currentStatePublisher.set(currentState.toString());
-                                currentSubData = nextFromStates;
+                                // Anything signalled so far was meant for the state we're leaving
+                                pendingTransitions.clear();
+
+                                $4LcurrentState = nextState;
+                                $3L
 
-                                runTransitionCommands(nextToStates);
+                                // The machine is completely in its new state before any user code runs, so one that throws can't leave it half updated
+                                applyCompiledState(compiled);
 
-                                regenerateTransitionWhenCache();
-                                regenerateCommandCache();
-                                regenerateFailLoudlyCache();
-                                regenerateTimerCache();
+                                runTransitionActions(transitionActions, nextToStateIds);
+                                runTransitionCommands(transitionCommands, nextToStateIds);
                                 """,
-                        Collections.class,
                         FailLoudlyException.class,
-                        InvalidStateTransition.class);
+                        InvalidStateTransition.class,
+                        validator.throttlesStateString()
+                                ? CodeBlock.of("currentStateNameStale = true;")
+                                : CodeBlock.of("currentStatePublisher.set(compiled.stateName);"),
+                        CodeBlock.builder()
+                                .add(StateMachineBuilder.fieldPublishing(validator, CodeBlock.of("nextState"), CodeBlock.of("currentState")))
+                                .add(validator.publishStruct() ? CodeBlock.of("currentStateStructPublisher.set(nextState);\n") : CodeBlock.of(""))
+                                .build());
 
         builder.addMethod(updateStateMethodBuilder.build());
     }
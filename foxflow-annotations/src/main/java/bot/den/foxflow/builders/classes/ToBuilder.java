@@ -7,6 +7,10 @@ import com.palantir.javapoet.MethodSpec;
 import com.palantir.javapoet.TypeSpec;
 import edu.wpi.first.units.Units;
 import edu.wpi.first.units.measure.Time;
+import edu.wpi.first.wpilibj.event.BooleanEvent;
+import edu.wpi.first.wpilibj.event.EventLoop;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import edu.wpi.first.wpilibj2.command.button.Trigger;
 
 import javax.lang.model.element.Modifier;
 import java.util.function.BooleanSupplier;
@@ -28,6 +32,7 @@ public class ToBuilder implements TypedBuilder<TypeSpec> {
         addWhenMethod();
         addAlwaysMethod();
         addAfterTimeMethods();
+        addSignalMethods();
     }
 
     private void addConstructor() {
@@ -52,6 +57,17 @@ public class ToBuilder implements TypedBuilder<TypeSpec> {
                 .addStatement("return this")
                 .build()
         );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("transitionWhen")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(BooleanSupplier.class, "booleanSupplier")
+                .addParameter(int.class, "pollDivisor")
+                .returns(names.toClassName())
+                .addStatement("this.manager.transitionWhen(this.fromState, this.toState, booleanSupplier, pollDivisor)")
+                .addStatement("return this")
+                .build()
+        );
     }
 
     private void addAlwaysMethod() {
@@ -85,6 +101,37 @@ public class ToBuilder implements TypedBuilder<TypeSpec> {
         );
     }
 
+    private void addSignalMethods() {
+        builder.addMethod(MethodSpec
+                .methodBuilder("signal")
+                .addModifiers(Modifier.PUBLIC)
+                .addStatement("this.manager.signal(this.fromState, this.toState)")
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("transitionOn")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(Trigger.class, "trigger")
+                .returns(names.toClassName())
+                .addComment("Bound like any other button, so an edge signals directly instead of scheduling a command")
+                .addStatement("return this.transitionOn($T.getInstance().getDefaultButtonLoop(), trigger)", CommandScheduler.class)
+                .build()
+        );
+
+        builder.addMethod(MethodSpec
+                .methodBuilder("transitionOn")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(EventLoop.class, "eventLoop")
+                .addParameter(BooleanSupplier.class, "booleanSupplier")
+                .returns(names.toClassName())
+                .addStatement("this.manager.transitionOnSignal(this.fromState, this.toState)")
+                .addStatement("new $T(eventLoop, booleanSupplier).rising().ifHigh(this::signal)", BooleanEvent.class)
+                .addStatement("return this")
+                .build()
+        );
+    }
+
     @Override
     public TypeSpec build() {
         return builder.build();
@@ -4,6 +4,7 @@ import bot.den.foxflow.DefaultState;
 import bot.den.foxflow.LimitsStateTransitions;
 import bot.den.foxflow.Environment;
 import bot.den.foxflow.RobotState;
+import bot.den.foxflow.StateMachine;
 import bot.den.foxflow.builders.FieldHelper;
 import com.palantir.javapoet.ClassName;
 import com.palantir.javapoet.ParameterizedTypeName;
@@ -12,6 +13,8 @@ import edu.wpi.first.math.Pair;
 import edu.wpi.first.units.measure.Time;
 
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -19,6 +22,8 @@ public class EnumValidator implements Validator {
     private final ClassName originalTypeName;
     private final boolean implementsStateTransitionInterface;
     public final Element defaultOption;
+    public final List<String> constants;
+    private final boolean publishStruct;
 
     public EnumValidator(Environment environment) {
         var typeElement = environment.element();
@@ -26,6 +31,16 @@ public class EnumValidator implements Validator {
 
         implementsStateTransitionInterface = environment.validlySelfImplements(LimitsStateTransitions.class);
 
+        constants = typeElement
+                .getEnclosedElements()
+                .stream()
+                .filter(e -> e.getKind() == ElementKind.ENUM_CONSTANT)
+                .map(e -> e.getSimpleName().toString())
+                .toList();
+
+        var annotation = typeElement.getAnnotation(StateMachine.class);
+        publishStruct = annotation != null && annotation.publishStruct();
+
         Set<? extends Element> elementsAnnotatedWithDefaultOptions = environment
                 .roundEnvironment()
                 .getElementsAnnotatedWith(DefaultState.class);
@@ -57,6 +72,11 @@ public class EnumValidator implements Validator {
         return originalTypeName;
     }
 
+    @Override
+    public boolean publishStruct() {
+        return publishStruct;
+    }
+
     @Override
     public ClassName wrappedClassName() {
         throw new UnsupportedOperationException("Enum validator does not wrap the class name");
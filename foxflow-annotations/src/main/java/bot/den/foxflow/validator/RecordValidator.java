@@ -18,19 +18,36 @@ public class RecordValidator implements Validator {
     public final Map<List<Field<ClassName>>, ClassName> fieldToInnerClass;
     public final Map<ClassName, List<Field<ClassName>>> innerClassToField;
     public final boolean robotStatePresent;
+    public final boolean enumOnly;
+    /**
+     * Whether every possible state of this record is numbered, see {@link #packedStateCount}
+     */
+    public final boolean packsStates;
+    /**
+     * How many possible states an enum-only record has. Only set when it's at most {@link #MAX_PACKED_STATES}.
+     */
+    public final long packedStateCount;
+    public final boolean presenceMask;
+    private final boolean publishStruct;
+    private final boolean publishFields;
     public final List<Pair<String, TypeSpec>> typesToWrite = new ArrayList<>();
 
     // These contain the mapping between the class the user defined and our data class
     public final Map<ClassName, ClassName> nestedRecords = new HashMap<>();
     public final Map<ClassName, ClassName> nestedInterfaces = new HashMap<>();
     public final Map<ClassName, Element> defaultValues = new HashMap<>();
+    public final Map<ClassName, List<String>> enumConstants = new HashMap<>();
 
     public final Map<ClassName, Boolean> supportsStateTransition;
 
+    // Past this many states, tables indexed by the packed state would take up too much memory
+    public static final long MAX_PACKED_STATES = 1 << 16;
+
     private final ClassName originalTypeName;
     private final ClassName wrappedTypeName;
     private final ClassName pairName;
     private final ClassName timeName;
+    private final ClassName slotsName;
     private final Set<List<Field<ClassName>>> permutations;
 
     public RecordValidator(Environment environment) {
@@ -41,6 +58,12 @@ public class RecordValidator implements Validator {
         wrappedTypeName = ClassName.get(obfuscatedPackageName, "Data");
         pairName = wrappedTypeName.nestedClass("Pair");
         timeName = wrappedTypeName.nestedClass("Time");
+        slotsName = wrappedTypeName.nestedClass("Slots");
+
+        var annotation = typeElement.getAnnotation(StateMachine.class);
+        presenceMask = annotation != null && annotation.presenceMask();
+        publishStruct = annotation != null && annotation.publishStruct();
+        publishFields = annotation != null && annotation.publishFields();
 
         var typeUtils = environment.processingEnvironment().getTypeUtils();
 
@@ -115,6 +138,8 @@ public class RecordValidator implements Validator {
                     .toList();
 
             enumValidators.forEach(enumValidator -> {
+                enumConstants.put(enumValidator.originalTypeName(), enumValidator.constants);
+
                 if (enumValidator.defaultOption != null) {
                     defaultValues.put(enumValidator.originalTypeName(), enumValidator.defaultOption);
                 }
@@ -151,9 +176,35 @@ public class RecordValidator implements Validator {
         }
 
         robotStatePresent = fields.stream().anyMatch(f -> f.value().equals(ClassName.get(RobotState.class)));
+        // Records made of only enums can be packed into a single number, see RecordDataBuilder
+        enumOnly = fields.stream().noneMatch(f -> nestedRecords.containsKey(f.value()) || nestedInterfaces.containsKey(f.value()));
+        if (publishStruct && !enumOnly) {
+            throw new RuntimeException("Only records made of enums can be published as a struct. Failed to build state machine for " + originalTypeName);
+        }
+
+        long stateCount = enumOnly ? countStates() : Long.MAX_VALUE;
+        packsStates = stateCount <= MAX_PACKED_STATES;
+        packedStateCount = packsStates ? stateCount : 0;
+
         typesToWrite.add(new Pair<>(obfuscatedPackageName, new RecordDataBuilder(this).build()));
     }
 
+    /**
+     * @return The number of possible states of this enum-only record, or {@link Long#MAX_VALUE} if it doesn't fit in a long
+     */
+    private long countStates() {
+        long count = 1;
+        for (var field : fields) {
+            try {
+                count = Math.multiplyExact(count, enumConstants.get(field.value()).size());
+            } catch (ArithmeticException e) {
+                return Long.MAX_VALUE;
+            }
+        }
+
+        return count;
+    }
+
     public DataEmitter dataEmitter(List<Field<ClassName>> fields) {
         return new DataEmitter(fields);
     }
@@ -182,6 +233,35 @@ public class RecordValidator implements Validator {
         return timeName;
     }
 
+    /**
+     * @return The single data class used instead of one class per field combination when {@link #presenceMask} is set
+     */
+    public ClassName slotsClassName() {
+        return slotsName;
+    }
+
+    /**
+     * @param dataClass One of the inner data classes
+     * @return A bitmask with one bit set for each of this record's fields that the data class holds
+     */
+    public int presenceMask(ClassName dataClass) {
+        int mask = 0;
+        for (var field : innerClassToField.get(dataClass)) {
+            mask |= 1 << fields.indexOf(field);
+        }
+        return mask;
+    }
+
+    @Override
+    public boolean publishStruct() {
+        return publishStruct;
+    }
+
+    @Override
+    public boolean publishFields() {
+        return publishFields;
+    }
+
     @Override
     public boolean supportsStateTransition() {
         // A record class supports state transitions only if any of its fields do.
@@ -231,7 +311,7 @@ public class RecordValidator implements Validator {
             CodeBlock.Builder code = CodeBlock.builder();
 
             if (emitConstructor) {
-                code.add("new $T(", this.dataClass);
+                code.add("new $T(", presenceMask ? slotsName : this.dataClass);
             }
 
             List<CodeBlock> fieldCodes = this.fields
@@ -254,6 +334,16 @@ public class RecordValidator implements Validator {
                     })
                     .toList();
 
+            if (emitConstructor && presenceMask) {
+                // The slots class takes every field, so the ones we don't have are left empty
+                List<CodeBlock> slotCodes = new ArrayList<>();
+                for (var field : RecordValidator.this.fields) {
+                    int index = this.fields.indexOf(field);
+                    slotCodes.add(index == -1 ? CodeBlock.of("null") : fieldCodes.get(index));
+                }
+                fieldCodes = slotCodes;
+            }
+
             code.add(CodeBlock.join(fieldCodes, ", "));
 
             if (emitConstructor) {
@@ -16,4 +16,25 @@ public interface Validator {
     boolean supportsStateTransition();
 
     <R> FieldHelper<R> newFieldHelper();
+
+    /**
+     * @return Whether the state machine should publish its state as a struct, see {@link bot.den.foxflow.StateMachine#publishStruct()}
+     */
+    default boolean publishStruct() {
+        return false;
+    }
+
+    /**
+     * @return Whether the state machine should publish each field separately, see {@link bot.den.foxflow.StateMachine#publishFields()}
+     */
+    default boolean publishFields() {
+        return false;
+    }
+
+    /**
+     * @return Whether the whole state string is only published along with the metrics, since it's available another way
+     */
+    default boolean throttlesStateString() {
+        return publishStruct() || publishFields();
+    }
 }
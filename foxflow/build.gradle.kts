@@ -1,6 +1,7 @@
 plugins {
     id("java")
     id("maven-publish")
+    id("edu.wpi.first.wpilib.repositories.WPILibRepositoriesPlugin") version "2025.0"
 }
 
 group = "bot.den"
@@ -9,8 +10,15 @@ version = project.findProperty("version") ?: "dev"
 repositories {
     mavenCentral()
 }
+wpilibRepositories.addAllReleaseRepositories(project)
+
+val wpilibVersion = "2026.1.1"
 
 dependencies {
+    // Robot projects always have WPILib, so there's no need to pull it in transitively
+    compileOnly("edu.wpi.first.wpilibj:wpilibj-java:${wpilibVersion}")
+    compileOnly("edu.wpi.first.ntcore:ntcore-java:${wpilibVersion}")
+
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
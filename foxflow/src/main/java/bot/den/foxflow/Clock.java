@@ -0,0 +1,33 @@
+package bot.den.foxflow;
+
+import edu.wpi.first.wpilibj.RobotController;
+
+/**
+ * The time source a state machine uses for {@code transitionAfter}. It is read once per poll and once per state change.
+ * <p>
+ * Every state machine uses {@link #fpga()} unless told otherwise. Tests can pass in their own clock to move time forward
+ * without waiting for it:
+ *
+ * <pre>{@code
+ * var now = new AtomicLong();
+ * stateMachine.useClock(now::get);
+ *
+ * now.addAndGet(5_000_000);  // 5 seconds later
+ * stateMachine.poll();
+ * }</pre>
+ */
+@FunctionalInterface
+public interface Clock {
+    /**
+     * @return the current time in microseconds. Only the difference between two readings matters, so this can start
+     * anywhere, but it should never go backwards.
+     */
+    long nowMicros();
+
+    /**
+     * @return a clock reading the FPGA time, the same as {@link edu.wpi.first.wpilibj.Timer}
+     */
+    static Clock fpga() {
+        return RobotController::getTime;
+    }
+}
@@ -0,0 +1,147 @@
+package bot.den.foxflow;
+
+import java.util.Arrays;
+
+/**
+ * Collects timings for one phase of a state machine, like {@code poll()}, without allocating.
+ * <p>
+ * The minimum, maximum and mean are exact. Percentiles come from a fixed histogram with 8 buckets per power of two, so
+ * they are accurate to within 12.5% and are always rounded up, never down.
+ */
+public final class LatencyStats {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] histogram = new long[BUCKETS];
+
+    private long count;
+    private long totalNanos;
+    private long minNanos = Long.MAX_VALUE;
+    private long maxNanos;
+
+    /**
+     * Records one sample. Negative samples, which can only come from a broken clock, are counted as 0.
+     *
+     * @param nanos how long the phase took, in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        count++;
+        totalNanos += nanos;
+        if (nanos < minNanos) {
+            minNanos = nanos;
+        }
+        if (nanos > maxNanos) {
+            maxNanos = nanos;
+        }
+
+        histogram[bucketOf(nanos)]++;
+    }
+
+    /**
+     * @return how many samples have been recorded
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return the total of every sample, in nanoseconds
+     */
+    public long totalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return the shortest sample, in nanoseconds, or 0 if nothing was recorded yet
+     */
+    public long minNanos() {
+        return count == 0 ? 0 : minNanos;
+    }
+
+    /**
+     * @return the longest sample, in nanoseconds
+     */
+    public long maxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @return the average sample, in nanoseconds
+     */
+    public double meanNanos() {
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    /**
+     * @return the 99th percentile sample, in nanoseconds
+     */
+    public long p99Nanos() {
+        return percentileNanos(99);
+    }
+
+    /**
+     * @param percentile a percentile between 0 and 100
+     * @return a value that at least this percentage of samples were at or below, in nanoseconds
+     */
+    public long percentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile has to be between 0 and 100, but was " + percentile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long wanted = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= wanted) {
+                return Math.min(maxNanos, Math.max(minNanos, highestValueIn(bucket)));
+            }
+        }
+
+        return maxNanos;
+    }
+
+    /**
+     * Forgets every sample recorded so far.
+     */
+    public void reset() {
+        Arrays.fill(histogram, 0);
+        count = 0;
+        totalNanos = 0;
+        minNanos = Long.MAX_VALUE;
+        maxNanos = 0;
+    }
+
+    private static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyStats[count=" + count + ", minNanos=" + minNanos() + ", meanNanos=" + meanNanos() + ", maxNanos=" + maxNanos + ", p99Nanos=" + p99Nanos() + "]";
+    }
+}
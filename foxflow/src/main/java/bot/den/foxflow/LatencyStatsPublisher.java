@@ -0,0 +1,52 @@
+package bot.den.foxflow;
+
+import edu.wpi.first.networktables.DoublePublisher;
+import edu.wpi.first.networktables.IntegerPublisher;
+import edu.wpi.first.networktables.NetworkTable;
+
+/**
+ * Publishes a {@link LatencyStats} to NetworkTables. Every value is in nanoseconds, except for the sample count.
+ */
+public final class LatencyStatsPublisher implements AutoCloseable {
+    private final LatencyStats stats;
+
+    private final IntegerPublisher countPublisher;
+    private final IntegerPublisher minPublisher;
+    private final DoublePublisher meanPublisher;
+    private final IntegerPublisher maxPublisher;
+    private final IntegerPublisher p99Publisher;
+
+    /**
+     * @param table the table to publish into, for example {@code FoxFlow/Intake/Metrics/Poll}
+     * @param stats the timings to publish
+     */
+    public LatencyStatsPublisher(NetworkTable table, LatencyStats stats) {
+        this.stats = stats;
+
+        countPublisher = table.getIntegerTopic("Count").publish();
+        minPublisher = table.getIntegerTopic("MinNanos").publish();
+        meanPublisher = table.getDoubleTopic("MeanNanos").publish();
+        maxPublisher = table.getIntegerTopic("MaxNanos").publish();
+        p99Publisher = table.getIntegerTopic("P99Nanos").publish();
+    }
+
+    /**
+     * Sends the current values. This does not allocate, so it's safe to call from the robot loop.
+     */
+    public void publish() {
+        countPublisher.set(stats.count());
+        minPublisher.set(stats.minNanos());
+        meanPublisher.set(stats.meanNanos());
+        maxPublisher.set(stats.maxNanos());
+        p99Publisher.set(stats.p99Nanos());
+    }
+
+    @Override
+    public void close() {
+        countPublisher.close();
+        minPublisher.close();
+        meanPublisher.close();
+        maxPublisher.close();
+        p99Publisher.close();
+    }
+}
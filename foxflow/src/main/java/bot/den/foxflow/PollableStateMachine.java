@@ -0,0 +1,24 @@
+package bot.den.foxflow;
+
+import edu.wpi.first.wpilibj.DSControlWord;
+
+/**
+ * Implemented by every generated state machine so that several machines can be polled together by a
+ * {@link StateMachineGroup}.
+ */
+public interface PollableStateMachine {
+    /**
+     * Checks every transition from the current state and moves to the next state if one is ready.
+     */
+    void poll();
+
+    /**
+     * Polls using a control word that the caller has already refreshed this tick. State machines with a
+     * {@link RobotState} field read the robot state from it instead of refreshing their own copy.
+     *
+     * @param refreshedControlWord a control word refreshed during the current robot tick
+     */
+    default void poll(DSControlWord refreshedControlWord) {
+        poll();
+    }
+}
@@ -0,0 +1,107 @@
+package bot.den.foxflow;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * A {@link BooleanSupplier} that is shared between every state machine using it.
+ * <p>
+ * Once its {@link SignalRegistry} has started ticking, the wrapped supplier is evaluated at most once per tick and every
+ * later read in the same tick returns the cached value. A tick that has outlived its loop period isn't cached anymore. Every evaluation is counted, and timed when the registry has
+ * statistics enabled, so slow conditions can be found.
+ * <p>
+ * Signals are created through {@link SignalRegistry#register(BooleanSupplier)} and are not thread safe.
+ */
+public final class Signal implements BooleanSupplier {
+    private final SignalRegistry registry;
+    private final BooleanSupplier supplier;
+
+    private long cachedTick = 0;
+    private boolean cachedValue;
+
+    private long evaluations;
+    private long timedEvaluations;
+    private long totalNanos;
+    private long maxNanos;
+
+    Signal(SignalRegistry registry, BooleanSupplier supplier) {
+        this.registry = registry;
+        this.supplier = supplier;
+    }
+
+    @Override
+    public boolean getAsBoolean() {
+        long tick = registry.tick();
+        if (tick != 0 && tick == cachedTick) {
+            return cachedValue;
+        }
+
+        evaluations++;
+
+        boolean value;
+        if (registry.isStatisticsEnabled()) {
+            long start = System.nanoTime();
+            value = supplier.getAsBoolean();
+            long elapsed = System.nanoTime() - start;
+
+            timedEvaluations++;
+            totalNanos += elapsed;
+            if (elapsed > maxNanos) {
+                maxNanos = elapsed;
+            }
+        } else {
+            value = supplier.getAsBoolean();
+        }
+
+        cachedTick = tick;
+        cachedValue = value;
+        return value;
+    }
+
+    /**
+     * @return the supplier this signal evaluates
+     */
+    public BooleanSupplier supplier() {
+        return supplier;
+    }
+
+    /**
+     * @return how many times the supplier has actually been evaluated
+     */
+    public long evaluations() {
+        return evaluations;
+    }
+
+    /**
+     * @return the total time spent evaluating the supplier while statistics were enabled, in nanoseconds
+     */
+    public long totalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return the longest single evaluation of the supplier while statistics were enabled, in nanoseconds
+     */
+    public long maxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @return the average time of one evaluation of the supplier while statistics were enabled, in nanoseconds
+     */
+    public double averageNanos() {
+        return timedEvaluations == 0 ? 0 : (double) totalNanos / timedEvaluations;
+    }
+
+    void resetStatistics() {
+        cachedTick = 0;
+        evaluations = 0;
+        timedEvaluations = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Signal[" + supplier + ", evaluations=" + evaluations + ", totalNanos=" + totalNanos + ", maxNanos=" + maxNanos + "]";
+    }
+}
@@ -0,0 +1,185 @@
+package bot.den.foxflow;
+
+import edu.wpi.first.units.measure.Time;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.BooleanSupplier;
+
+import static edu.wpi.first.units.Units.Microseconds;
+
+/**
+ * Shares transition conditions between state machines so that each distinct {@link BooleanSupplier} is evaluated at
+ * most once per robot tick.
+ * <p>
+ * Sharing is opt-in: only conditions wrapped by {@link #register(BooleanSupplier)} are shared, every other condition is
+ * evaluated by its state machine like before. Until {@link #refresh()} is called for the first time, signals are
+ * evaluated every time they are read, exactly as if they weren't registered. Call {@link #refresh()} once at the start
+ * of every robot loop, before polling any state machines, to turn on caching:
+ *
+ * <pre>{@code
+ * private final Signal hasNote = SignalRegistry.getDefault().register(beamBreak::get);
+ *
+ * intakeStateMachine.state(INTAKING).to(HOLDING).transitionWhen(hasNote);
+ * shooterStateMachine.state(IDLE).to(SPINNING_UP).transitionWhen(hasNote);
+ *
+ * @Override
+ * public void robotPeriodic() {
+ *     SignalRegistry.getDefault().refresh();
+ *     intakeStateMachine.poll();
+ *     shooterStateMachine.poll();
+ *     CommandScheduler.getInstance().run();
+ * }
+ * }</pre>
+ * <p>
+ * A tick only lasts one loop period, 20 ms by default. If {@link #refresh()} stops being called, for example because the
+ * code refreshing it stopped running, signals go back to being evaluated every time they are read instead of returning
+ * a value that is getting older and older. {@link #isStale()} reports when that has happened.
+ * <p>
+ * Suppliers are matched by {@code equals}, which is identity for lambdas and method references, so the same object
+ * has to be registered for it to be shared. The registry only holds its suppliers and signals weakly, so a signal that
+ * no state machine uses anymore can be garbage collected.
+ */
+public final class SignalRegistry {
+    private static final SignalRegistry defaultInstance = new SignalRegistry();
+
+    // Signals strongly reference their supplier, so they're held weakly here too or the supplier could never be collected
+    private final Map<BooleanSupplier, WeakReference<Signal>> signals = new WeakHashMap<>();
+    private long tick = 0;
+    private boolean statisticsEnabled = false;
+
+    private Clock clock = Clock.fpga();
+    private long loopPeriodMicros = 20_000;
+    private long refreshMicros;
+
+    /**
+     * @return a registry shared by the whole robot program
+     */
+    public static SignalRegistry getDefault() {
+        return defaultInstance;
+    }
+
+    /**
+     * Finds the signal for a supplier, creating it the first time the supplier is seen.
+     *
+     * @param supplier the condition to share
+     * @return the signal wrapping this supplier. Passing in a signal returns it unchanged.
+     */
+    public Signal register(BooleanSupplier supplier) {
+        if (supplier instanceof Signal signal) {
+            return signal;
+        }
+
+        var reference = signals.get(supplier);
+        var signal = reference == null ? null : reference.get();
+        if (signal == null) {
+            signal = new Signal(this, supplier);
+            signals.put(supplier, new WeakReference<>(signal));
+        }
+
+        return signal;
+    }
+
+    /**
+     * Forgets a supplier, so registering it again creates a new signal. State machines already using its signal keep
+     * using it.
+     *
+     * @param supplier the condition that was registered
+     */
+    public void unregister(BooleanSupplier supplier) {
+        if (supplier instanceof Signal signal) {
+            supplier = signal.supplier();
+        }
+
+        signals.remove(supplier);
+    }
+
+    /**
+     * Starts a new robot tick. Every signal is evaluated again the first time it is read after this call.
+     */
+    public void refresh() {
+        tick++;
+        refreshMicros = clock.nowMicros();
+    }
+
+    /**
+     * @return whether the registry has been refreshed before, but not within the last loop period. Signals are
+     * evaluated every time they are read while this is true.
+     */
+    public boolean isStale() {
+        return tick != 0 && clock.nowMicros() - refreshMicros > loopPeriodMicros;
+    }
+
+    /**
+     * Sets how long a tick lasts before signals go back to evaluating on every read. Give it the robot's loop period.
+     *
+     * @param period the time between calls to {@link #refresh()}
+     */
+    public void setLoopPeriod(Time period) {
+        loopPeriodMicros = (long) period.in(Microseconds);
+    }
+
+    /**
+     * Sets where the time used to expire a tick comes from. Tests can use this to move time forward instantly.
+     *
+     * @param clock the time source, read every time a signal is read after the first refresh
+     */
+    public void useClock(Clock clock) {
+        this.clock = clock;
+        refreshMicros = clock.nowMicros();
+    }
+
+    /**
+     * Goes back to evaluating signals every time they are read, clears every signal's statistics and forgets every
+     * registered supplier.
+     */
+    public void reset() {
+        tick = 0;
+        for (var signal : signals()) {
+            signal.resetStatistics();
+        }
+        signals.clear();
+    }
+
+    /**
+     * Turns timing every evaluation on or off. It's off by default, since it reads the clock twice per evaluation.
+     *
+     * @param enabled whether signals should record how long each evaluation took
+     */
+    public void setStatisticsEnabled(boolean enabled) {
+        statisticsEnabled = enabled;
+    }
+
+    /**
+     * @return whether signals record how long each evaluation took
+     */
+    public boolean isStatisticsEnabled() {
+        return statisticsEnabled;
+    }
+
+    /**
+     * @return every signal registered and still in use, for reporting how expensive each condition is
+     */
+    public Collection<Signal> signals() {
+        var result = new ArrayList<Signal>(signals.size());
+        for (var reference : signals.values()) {
+            var signal = reference.get();
+            if (signal != null) {
+                result.add(signal);
+            }
+        }
+
+        return Collections.unmodifiableCollection(result);
+    }
+
+    /**
+     * @return the current tick, or 0 if signals should be evaluated on every read
+     */
+    long tick() {
+        return isStale() ? 0 : tick;
+    }
+}
@@ -15,4 +15,30 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.CLASS)
 @Target(ElementType.TYPE)
 public @interface StateMachine {
+    /**
+     * Only used by records. By default, every combination of record fields gets its own generated class, which is
+     * 2<sup>n</sup> - 1 classes for n fields. With this enabled, a single class holds every field and tracks which ones
+     * are present with a bitmask instead. The state machine API doesn't change.
+     *
+     * @return Whether to generate a single presence mask data class
+     */
+    boolean presenceMask() default false;
+
+    /**
+     * Also publish the current state as a WPILib struct, with one ordinal per field, under
+     * {@code FoxFlow/<Type>/StateStruct}. The string form under {@code FoxFlow/<Type>/State} is then only updated when
+     * metrics are published, about once a second. Only enums and records made of enums can be published as a struct.
+     *
+     * @return Whether to publish the state as a struct
+     */
+    boolean publishStruct() default false;
+
+    /**
+     * Only used by records. Also publish each field of the state as its own string topic, like
+     * {@code FoxFlow/<Type>/<field>}, which is only written when that field changes. The string form of the whole state
+     * under {@code FoxFlow/<Type>/State} is then only updated when metrics are published, about once a second.
+     *
+     * @return Whether to publish each field separately
+     */
+    boolean publishFields() default false;
 }
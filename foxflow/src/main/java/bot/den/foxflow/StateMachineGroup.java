@@ -0,0 +1,192 @@
+package bot.den.foxflow;
+
+import bot.den.foxflow.exceptions.CircularPollDependency;
+import edu.wpi.first.wpilibj.DSControlWord;
+
+import java.util.*;
+
+/**
+ * Polls many state machines with a single call, in an order that respects the dependencies between them.
+ * <p>
+ * Work that every machine would otherwise repeat is done once per {@link #poll()}: the group's own
+ * {@link SignalRegistry} starts a new tick, and a single {@link DSControlWord} is refreshed and shared with every machine
+ * that tracks {@link RobotState}. Only signals registered with the group's registry are cached per tick, so machines
+ * outside the group are never affected by it.
+ *
+ * <pre>{@code
+ * private final StateMachineGroup stateMachines = new StateMachineGroup()
+ *         .add(intakeStateMachine)
+ *         .add(shooterStateMachine, intakeStateMachine);  // The shooter looks at the intake's state
+ *
+ * private final Signal hasNote = stateMachines.signalRegistry().register(beamBreak::get);
+ *
+ * @Override
+ * public void robotPeriodic() {
+ *     stateMachines.poll();
+ *     CommandScheduler.getInstance().run();
+ * }
+ * }</pre>
+ * <p>
+ * Machines are polled after everything they depend on. Otherwise, they are polled in the order they were added.
+ */
+public class StateMachineGroup {
+    private final Map<PollableStateMachine, List<PollableStateMachine>> dependencies = new LinkedHashMap<>();
+    private final Map<PollableStateMachine, Integer> pollIndex = new IdentityHashMap<>();
+    private final DSControlWord controlWord = new DSControlWord();
+    private final SignalRegistry signalRegistry;
+
+    private PollableStateMachine[] pollOrder = new PollableStateMachine[0];
+    private long[] lastPollNanos = new long[0];
+    private long lastTotalPollNanos = 0;
+    private boolean pollOrderOutdated = false;
+
+    /**
+     * Creates a group with a registry of its own for sharing conditions between its machines.
+     */
+    public StateMachineGroup() {
+        this(new SignalRegistry());
+    }
+
+    /**
+     * Creates a group that starts a new tick of the given registry on every {@link #poll()}. The group then owns that
+     * registry's tick, so it shouldn't be refreshed anywhere else.
+     *
+     * @param signalRegistry the registry the conditions of this group's machines are registered with
+     */
+    public StateMachineGroup(SignalRegistry signalRegistry) {
+        this.signalRegistry = Objects.requireNonNull(signalRegistry);
+    }
+
+    /**
+     * Adds a state machine to this group. Adding a machine that is already in the group adds to its dependencies.
+     *
+     * @param machine   the state machine to poll
+     * @param dependsOn state machines that have to be polled before this one. They must also be added to this group.
+     * @return this group, for chaining
+     */
+    public StateMachineGroup add(PollableStateMachine machine, PollableStateMachine... dependsOn) {
+        Objects.requireNonNull(machine);
+
+        var machineDependencies = dependencies.computeIfAbsent(machine, m -> new ArrayList<>());
+        for (var dependency : dependsOn) {
+            machineDependencies.add(Objects.requireNonNull(dependency));
+        }
+
+        pollOrderOutdated = true;
+        return this;
+    }
+
+    /**
+     * Polls every state machine in this group once. Call this once per robot loop, before the command scheduler runs.
+     *
+     * @throws CircularPollDependency if the machines depend on each other in a cycle
+     * @throws IllegalArgumentException if a machine depends on one that isn't in this group
+     */
+    public void poll() {
+        if (pollOrderOutdated) {
+            updatePollOrder();
+        }
+
+        long groupStart = System.nanoTime();
+
+        signalRegistry.refresh();
+        controlWord.refresh();
+
+        for (int i = 0; i < pollOrder.length; i++) {
+            long start = System.nanoTime();
+            pollOrder[i].poll(controlWord);
+            lastPollNanos[i] = System.nanoTime() - start;
+        }
+
+        lastTotalPollNanos = System.nanoTime() - groupStart;
+    }
+
+    /**
+     * @return the registry this group starts a new tick of on every {@link #poll()}
+     */
+    public SignalRegistry signalRegistry() {
+        return signalRegistry;
+    }
+
+    /**
+     * @return the state machines in the order they are polled
+     */
+    public List<PollableStateMachine> pollOrder() {
+        if (pollOrderOutdated) {
+            updatePollOrder();
+        }
+
+        return List.of(pollOrder);
+    }
+
+    /**
+     * @param machine a state machine in this group
+     * @return how long the machine took during the last {@link #poll()}, in nanoseconds
+     */
+    public long lastPollNanos(PollableStateMachine machine) {
+        var index = pollIndex.get(machine);
+        if (index == null) {
+            throw new IllegalArgumentException(machine + " has not been polled by this group");
+        }
+
+        return lastPollNanos[index];
+    }
+
+    /**
+     * @return how long the last {@link #poll()} took in total, in nanoseconds
+     */
+    public long lastTotalPollNanos() {
+        return lastTotalPollNanos;
+    }
+
+    private void updatePollOrder() {
+        List<PollableStateMachine> order = new ArrayList<>(dependencies.size());
+        Set<PollableStateMachine> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<PollableStateMachine> visiting = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (var machine : dependencies.keySet()) {
+            visit(machine, order, visited, visiting);
+        }
+
+        var previousNanos = new IdentityHashMap<PollableStateMachine, Long>();
+        for (var entry : pollIndex.entrySet()) {
+            previousNanos.put(entry.getKey(), lastPollNanos[entry.getValue()]);
+        }
+
+        pollOrder = order.toArray(new PollableStateMachine[0]);
+        lastPollNanos = new long[pollOrder.length];
+        pollIndex.clear();
+        for (int i = 0; i < pollOrder.length; i++) {
+            pollIndex.put(pollOrder[i], i);
+            lastPollNanos[i] = previousNanos.getOrDefault(pollOrder[i], 0L);
+        }
+
+        pollOrderOutdated = false;
+    }
+
+    private void visit(
+            PollableStateMachine machine,
+            List<PollableStateMachine> order,
+            Set<PollableStateMachine> visited,
+            Set<PollableStateMachine> visiting
+    ) {
+        if (visited.contains(machine)) {
+            return;
+        }
+        if (!visiting.add(machine)) {
+            throw new CircularPollDependency(machine);
+        }
+
+        for (var dependency : dependencies.get(machine)) {
+            if (!dependencies.containsKey(dependency)) {
+                throw new IllegalArgumentException(machine + " depends on " + dependency + ", which hasn't been added to this group");
+            }
+
+            visit(dependency, order, visited, visiting);
+        }
+
+        visiting.remove(machine);
+        visited.add(machine);
+        order.add(machine);
+    }
+}
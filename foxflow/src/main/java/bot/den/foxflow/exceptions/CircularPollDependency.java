@@ -0,0 +1,14 @@
+package bot.den.foxflow.exceptions;
+
+/**
+ * Thrown by a {@link bot.den.foxflow.StateMachineGroup} when the dependencies between its state machines form a
+ * cycle, so there is no order in which every machine is polled after the machines it depends on.
+ */
+public class CircularPollDependency extends RuntimeException {
+    /**
+     * @param machine a state machine that, through its dependencies, ends up depending on itself
+     */
+    public CircularPollDependency(Object machine) {
+        super("Cannot decide when to poll " + machine + " because it ends up depending on itself");
+    }
+}
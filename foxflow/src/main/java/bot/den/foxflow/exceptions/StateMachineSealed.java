@@ -0,0 +1,16 @@
+package bot.den.foxflow.exceptions;
+
+/**
+ * Thrown when a transition, command or fail loudly rule is set up on a state machine after {@code seal()} was called.
+ * <p>
+ * Sealing compiles the setup into the structures used while polling, so nothing can be added afterward. Finish setting up
+ * the state machine before sealing it.
+ */
+public class StateMachineSealed extends RuntimeException {
+    /**
+     * @param stateMachineName the name of the state machine that was already sealed
+     */
+    public StateMachineSealed(String stateMachineName) {
+        super("Cannot change the setup of " + stateMachineName + " because it has already been sealed");
+    }
+}
@@ -1,10 +1,15 @@
 package bot.den.foxflow.tests;
 
+import bot.den.foxflow.StateMachine;
+
 /**
  * This enum does not implement any state transition limitations, so the RobotRecord will have two fields that do not
  * implement any limitations. The resulting record data class should also not generate any methods to limit state
  * transitions.
+ * <p>
+ * It's also a state machine of its own, for tests that need transitions where nothing outside FoxFlow runs.
  */
+@StateMachine
 public enum MultiStateEnum {
     A,
     B,
@@ -0,0 +1,15 @@
+package bot.den.foxflow.tests;
+
+import bot.den.foxflow.RobotState;
+import bot.den.foxflow.StateMachine;
+
+/**
+ * Same kind of record as the others, but generated with a single data class that tracks which fields are present.
+ */
+@StateMachine(presenceMask = true)
+public record PresenceMaskRecord(
+        MultiStateEnum multiState,
+        BasicEnum basic,
+        RobotState robotState
+) {
+}
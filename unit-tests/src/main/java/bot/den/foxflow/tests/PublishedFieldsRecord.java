@@ -0,0 +1,10 @@
+package bot.den.foxflow.tests;
+
+import bot.den.foxflow.StateMachine;
+
+@StateMachine(publishFields = true)
+public record PublishedFieldsRecord(
+        MultiStateEnum multiState,
+        BasicEnum basic
+) {
+}
@@ -0,0 +1,10 @@
+package bot.den.foxflow.tests;
+
+import bot.den.foxflow.StateMachine;
+
+@StateMachine(publishStruct = true)
+public record StructRecord(
+        MultiStateEnum multiState,
+        BasicEnum basic
+) {
+}
@@ -15,6 +15,10 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 
 import static edu.wpi.first.units.Units.Seconds;
 import static org.junit.jupiter.api.Assertions.*;
@@ -151,6 +155,46 @@ public class BasicEnumStateMachineTest {
         assertTrue(test.get());
     }
 
+    @Test
+    void runImmediatelyRunsDuringTheTransition() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        final AtomicReference<BasicEnum> seenState = new AtomicReference<>();
+
+        machine
+                .state(BasicEnum.START)
+                .to(BasicEnum.STATE_A)
+                .transitionAlways()
+                .runImmediately(() -> seenState.set(machine.currentState()));
+
+        // Polling from the scheduler would delay a command until the next loop, but actions run right away
+        CommandScheduler.getInstance().schedule(machine.runPollCommand());
+        CommandScheduler.getInstance().run();
+
+        assertEquals(BasicEnum.STATE_A, seenState.get());
+    }
+
+    @Test
+    void throwingActionLeavesTheMachineInItsNewState() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        machine
+                .state(BasicEnum.START)
+                .to(BasicEnum.STATE_A)
+                .transitionAlways()
+                .runImmediately(() -> {
+                    throw new IllegalStateException("Action failed");
+                });
+        machine.state(BasicEnum.STATE_A).to(BasicEnum.STATE_B).transitionAlways();
+
+        assertThrows(IllegalStateException.class, machine::poll);
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+
+        // The transitions out of the new state are the ones that get checked
+        machine.poll();
+        assertEquals(BasicEnum.STATE_B, machine.currentState());
+    }
+
     @Test
     void invalidTransition() {
         var machine = new BasicEnumStateMachine(BasicEnum.START);
@@ -469,6 +513,244 @@ public class BasicEnumStateMachineTest {
         assertEquals(BasicEnum.STATE_A, machine.currentState());
     }
 
+    @Test
+    void multipleTrueConditionsOnSameTransition() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        final AtomicBoolean firstCondition = new AtomicBoolean(true);
+        final AtomicBoolean secondCondition = new AtomicBoolean(true);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(firstCondition::get);
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(secondCondition::get);
+
+        // Both conditions agree on where to go, so this isn't ambiguous
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+    }
+
+    @Test
+    void firedSupplierMaskShowsWhichConditionsWereTrue() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        final AtomicBoolean firstCondition = new AtomicBoolean(false);
+        final AtomicBoolean secondCondition = new AtomicBoolean(false);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(firstCondition::get);
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(secondCondition::get);
+
+        // Nothing is true yet
+        machine.poll();
+        assertEquals(0, machine.firedSupplierMask()[0]);
+
+        // Only the second condition fires, which is the second bit
+        secondCondition.set(true);
+        machine.poll();
+        assertEquals(0b10, machine.firedSupplierMask()[0]);
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+    }
+
+    @Test
+    void firedSupplierBitsCanBeMappedBackToTheirTransitions() {
+        var machine = new BasicEnumStateMachine(BasicEnum.STATE_A);
+
+        final AtomicBoolean toC = new AtomicBoolean(false);
+        final AtomicBoolean toB = new AtomicBoolean(false);
+        BooleanSupplier toCCondition = toC::get;
+        BooleanSupplier toBCondition = toB::get;
+
+        // Registered out of declaration order, so the bits don't follow registration order
+        machine.state(BasicEnum.STATE_A).to(BasicEnum.STATE_C).transitionWhen(toCCondition);
+        machine.state(BasicEnum.STATE_A).to(BasicEnum.STATE_B).transitionWhen(toBCondition);
+
+        toC.set(true);
+        machine.poll();
+        assertEquals(BasicEnum.STATE_C, machine.currentState());
+
+        // The mask and its lookups still describe STATE_A, the state it was computed in
+        long mask = machine.firedSupplierMask()[0];
+        assertEquals(1, Long.bitCount(mask));
+
+        // Bits follow the order of the states being transitioned to, and STATE_B is declared before STATE_C
+        int bit = Long.numberOfTrailingZeros(mask);
+        assertEquals(1, bit);
+        assertSame(toCCondition, machine.firedSupplier(bit));
+
+        var transitions = machine.firedSupplierTransitions(bit);
+        assertEquals(1, transitions.size());
+        assertEquals(BasicEnum.STATE_A, transitions.get(0).getFirst());
+        assertEquals(BasicEnum.STATE_C, transitions.get(0).getSecond());
+
+        assertSame(toBCondition, machine.firedSupplier(0));
+        assertEquals(BasicEnum.STATE_B, machine.firedSupplierTransitions(0).get(0).getSecond());
+    }
+
+    @Test
+    void throttledConditionIsOnlyEvaluatedEveryNthPoll() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        final AtomicInteger evaluations = new AtomicInteger(0);
+        final AtomicBoolean condition = new AtomicBoolean(false);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(() -> {
+            evaluations.incrementAndGet();
+            return condition.get();
+        }, 3);
+
+        // The first poll evaluates the condition, the next two reuse that value
+        machine.poll();
+        assertEquals(1, evaluations.get());
+
+        condition.set(true);
+        machine.poll();
+        machine.poll();
+        assertEquals(1, evaluations.get());
+        assertEquals(BasicEnum.START, machine.currentState());
+
+        // The fourth poll evaluates the condition again and sees that it's true now
+        machine.poll();
+        assertEquals(2, evaluations.get());
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+    }
+
+    @Test
+    void throttledConditionIsEvaluatedRightAwayInANewState() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        final AtomicBoolean condition = new AtomicBoolean(false);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+        machine.state(BasicEnum.STATE_A).to(BasicEnum.STATE_B).transitionWhen(condition::get, 10);
+
+        condition.set(true);
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+
+        machine.poll();
+        assertEquals(BasicEnum.STATE_B, machine.currentState());
+    }
+
+    @Test
+    void pollDivisorHasToBePositive() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(() -> true, 0)
+        );
+    }
+
+    @Test
+    void signalTransitionsOnNextPoll() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        var transition = machine.state(BasicEnum.START).to(BasicEnum.STATE_A);
+
+        // Nothing has been signalled yet
+        machine.poll();
+        assertEquals(BasicEnum.START, machine.currentState());
+
+        // The signal is only acted on when we poll
+        transition.signal();
+        assertEquals(BasicEnum.START, machine.currentState());
+
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+    }
+
+    @Test
+    void signalIsIgnoredOutsideItsFromState() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+        var transition = machine.state(BasicEnum.STATE_A).to(BasicEnum.STATE_B);
+
+        // We're not in STATE_A yet, so this signal goes nowhere
+        transition.signal();
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+
+        // The earlier signal should not have been remembered
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+
+        transition.signal();
+        machine.poll();
+        assertEquals(BasicEnum.STATE_B, machine.currentState());
+    }
+
+    @Test
+    void transitionOnEventLoopOnlyFiresOnRisingEdge() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+        var eventLoop = new EventLoop();
+
+        final AtomicBoolean condition = new AtomicBoolean(false);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionOn(eventLoop, condition::get);
+        machine.state(BasicEnum.STATE_A).to(BasicEnum.START).transitionOn(eventLoop, () -> !condition.get());
+
+        eventLoop.poll();
+        machine.poll();
+        assertEquals(BasicEnum.START, machine.currentState());
+
+        condition.set(true);
+        eventLoop.poll();
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+
+        // The condition is still true, but since it didn't change we stay put
+        CommandScheduler.getInstance().schedule(machine.transitionTo(BasicEnum.START));
+        eventLoop.poll();
+        machine.poll();
+        assertEquals(BasicEnum.START, machine.currentState());
+    }
+
+    @Test
+    void transitionOnTrigger() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        final AtomicBoolean condition = new AtomicBoolean(false);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionOn(new Trigger(condition::get));
+
+        // Edges are picked up by the scheduler's button loop
+        CommandScheduler.getInstance().run();
+        machine.poll();
+        assertEquals(BasicEnum.START, machine.currentState());
+
+        condition.set(true);
+        CommandScheduler.getInstance().run();
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+    }
+
+    @Test
+    void transitionOnTriggerDropsEdgesOutsideItsFromState() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        final AtomicBoolean condition = new AtomicBoolean(false);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+        machine.state(BasicEnum.STATE_A).to(BasicEnum.STATE_B).transitionOn(new Trigger(condition::get));
+
+        // The edge happens while we're still in START, so it doesn't count for STATE_A
+        condition.set(true);
+        CommandScheduler.getInstance().run();
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+
+        CommandScheduler.getInstance().run();
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+
+        // A new edge in STATE_A does
+        condition.set(false);
+        CommandScheduler.getInstance().run();
+        condition.set(true);
+        CommandScheduler.getInstance().run();
+        machine.poll();
+        assertEquals(BasicEnum.STATE_B, machine.currentState());
+    }
+
     @Test
     void canAddTransitionWhileMachineIsRunning() {
         var machine = new BasicEnumStateMachine(BasicEnum.START);
@@ -542,6 +824,52 @@ public class BasicEnumStateMachineTest {
         assertTrue(aTrigger.getAsBoolean());
     }
 
+    @Test
+    void everyStateCanHaveATrigger() {
+        var states = ManyStatesEnum.values();
+        var machine = new ManyStatesEnumStateMachine(states[0]);
+
+        var triggers = new Trigger[states.length];
+        for (int i = 0; i < states.length; i++) {
+            triggers[i] = machine.state(states[i]).trigger();
+            machine.state(states[i]).to(states[(i + 1) % states.length]).transitionAlways();
+        }
+
+        // Only the trigger for the state we're in is active, however many triggers there are
+        for (int i = 0; i < states.length; i++) {
+            for (int j = 0; j < states.length; j++) {
+                assertEquals(i == j, triggers[j].getAsBoolean());
+            }
+            machine.poll();
+        }
+    }
+
+    @Test
+    void triggersAreUpToDateDuringTransitionActions() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+        var startTrigger = machine.state(BasicEnum.START).trigger();
+        var aTrigger = machine.state(BasicEnum.STATE_A).trigger();
+
+        final AtomicBoolean seenInAction = new AtomicBoolean(false);
+        final AtomicBoolean seenInCommand = new AtomicBoolean(false);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+        machine
+                .state(BasicEnum.START)
+                .to(BasicEnum.STATE_A)
+                .runImmediately(() -> seenInAction.set(aTrigger.getAsBoolean() && !startTrigger.getAsBoolean()));
+        machine
+                .state(BasicEnum.START)
+                .to(BasicEnum.STATE_A)
+                .run(Commands.runOnce(() -> seenInCommand.set(aTrigger.getAsBoolean())).ignoringDisable(true));
+
+        machine.poll();
+        CommandScheduler.getInstance().run();
+
+        assertTrue(seenInAction.get());
+        assertTrue(seenInCommand.get());
+    }
+
     @Test
     void transitionAfterTimeInSeconds() {
         var machine = new BasicEnumStateMachine(BasicEnum.START);
@@ -620,10 +948,69 @@ public class BasicEnumStateMachineTest {
 
         assertThrows(
                 AmbiguousTransitionSetup.class,
-                () -> machine.state(BasicEnum.STATE_A).to(BasicEnum.STATE_C).transitionAfter(Seconds.of(1))
+                () -> machine.state(BasicEnum.STATE_A).to(BasicEnum.STATE_C).transitionAfter(Seconds.of(5))
         );
     }
 
+    @Test
+    void transitionAfterTakesTheEarliestOfSeveralTimeLimits() {
+        var machine = new BasicEnumStateMachine(BasicEnum.STATE_A);
+
+        machine.state(BasicEnum.STATE_A).to(BasicEnum.STATE_B).transitionAfter(Seconds.of(5));
+        machine.state(BasicEnum.STATE_A).to(BasicEnum.STATE_C).transitionAfter(Seconds.of(1));
+
+        SimHooks.stepTiming(0.5);
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+
+        SimHooks.stepTiming(0.5);
+        machine.poll();
+        assertEquals(BasicEnum.STATE_C, machine.currentState());
+    }
+
+    @Test
+    void transitionAfterUsesTheGivenClock() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+        var now = new AtomicLong(1_000_000);
+        machine.useClock(now::get);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAfter(Seconds.of(20));
+
+        // Real time doesn't matter anymore, only the clock we gave it
+        SimHooks.stepTiming(30);
+        machine.poll();
+        assertEquals(BasicEnum.START, machine.currentState());
+
+        now.addAndGet(19_999_999);
+        machine.poll();
+        assertEquals(BasicEnum.START, machine.currentState());
+
+        now.addAndGet(1);
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+    }
+
+    @Test
+    void expiredTimeLimitStillFiresAfterAnAmbiguousPoll() {
+        var machine = new BasicEnumStateMachine(BasicEnum.STATE_A);
+        var now = new AtomicLong(1_000_000);
+        machine.useClock(now::get);
+        var condition = new AtomicBoolean(true);
+
+        machine.state(BasicEnum.STATE_A).to(BasicEnum.STATE_B).transitionAfter(Seconds.of(1));
+        machine.state(BasicEnum.STATE_A).to(BasicEnum.STATE_C).transitionWhen(condition::get);
+
+        // Both transitions are active, so the machine can't pick one and stays put
+        now.addAndGet(1_000_000);
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+
+        // The time limit hasn't been used up by that poll
+        condition.set(false);
+        machine.poll();
+        assertEquals(BasicEnum.STATE_B, machine.currentState());
+    }
+
     @Test
     void verifyCurrentTopicIsBasedOnStateMachineName() {
         var machine = new BasicEnumStateMachine(BasicEnum.STATE_A);
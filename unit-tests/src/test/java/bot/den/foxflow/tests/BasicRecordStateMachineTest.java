@@ -158,6 +158,24 @@ public class BasicRecordStateMachineTest {
         assertTrue(trigger.getAsBoolean());
     }
 
+    @Test
+    void triggerFollowsItsSubStateAcrossOtherChanges() {
+        var trigger = this.machine.state(InnerEnum.STAR).trigger();
+
+        // We start out in STAR, so the trigger is already active
+        assertTrue(trigger.getAsBoolean());
+
+        // Changing another field keeps us in STAR
+        CommandScheduler.getInstance().schedule(this.machine.transitionTo(MultiStateEnum.B));
+        assertTrue(trigger.getAsBoolean());
+
+        CommandScheduler.getInstance().schedule(this.machine.transitionTo(InnerEnum.CIRCLE));
+        assertFalse(trigger.getAsBoolean());
+
+        CommandScheduler.getInstance().schedule(this.machine.transitionTo(InnerEnum.STAR));
+        assertTrue(trigger.getAsBoolean());
+    }
+
     @Test
     void whenWorksOnSubsetOfData() {
         final AtomicBoolean test = new AtomicBoolean(false);
@@ -304,6 +322,37 @@ public class BasicRecordStateMachineTest {
         assertEquals(InnerEnum.STAR, this.machine.currentState().inner());
     }
 
+    @Test
+    void mergedTransitionsResolveTheSameWayEveryTime() {
+        AtomicBoolean multiStateCondition = new AtomicBoolean(false);
+        AtomicBoolean basicCondition = new AtomicBoolean(false);
+
+        this.machine.state(MultiStateEnum.A).to(MultiStateEnum.B).transitionWhen(multiStateCondition::get);
+        this.machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(basicCondition::get);
+
+        // Head back to the start whenever both of the conditions are cleared
+        this.machine.state(MultiStateEnum.B, BasicEnum.STATE_A).to(MultiStateEnum.A, BasicEnum.START).transitionWhen(
+                () -> !multiStateCondition.get() && !basicCondition.get()
+        );
+
+        // The first round has to work out the merge, later rounds reuse that answer
+        for (int i = 0; i < 3; i++) {
+            multiStateCondition.set(true);
+            basicCondition.set(true);
+            this.machine.poll();
+
+            assertEquals(MultiStateEnum.B, this.machine.currentState().multiState());
+            assertEquals(BasicEnum.STATE_A, this.machine.currentState().basic());
+
+            multiStateCondition.set(false);
+            basicCondition.set(false);
+            this.machine.poll();
+
+            assertEquals(MultiStateEnum.A, this.machine.currentState().multiState());
+            assertEquals(BasicEnum.START, this.machine.currentState().basic());
+        }
+    }
+
     /**
      * This test was added because we realized the "state" or "to" methods were not created for this particular
      * permutation of our record components.
@@ -346,6 +395,61 @@ public class BasicRecordStateMachineTest {
         assertEquals(InnerEnum.CIRCLE, this.machine.currentState().inner());
     }
 
+    @Test
+    void timeLimitsFromOneStateEscalate() {
+        // Warn, then retry, then give up, all while staying in MultiStateEnum.A until the last one
+        this.machine.state(MultiStateEnum.A).to(InnerEnum.CIRCLE).transitionAfter(1);
+        this.machine.state(MultiStateEnum.A).to(BasicEnum.STATE_A).transitionAfter(2);
+        this.machine.state(MultiStateEnum.A).to(MultiStateEnum.C).transitionAfter(5);
+
+        SimHooks.stepTiming(1);
+        this.machine.poll();
+
+        assertEquals(MultiStateEnum.A, this.machine.currentState().multiState());
+        assertEquals(BasicEnum.START, this.machine.currentState().basic());
+        assertEquals(InnerEnum.CIRCLE, this.machine.currentState().inner());
+
+        // Each time limit only fires once, so a later change to the inner state sticks
+        CommandScheduler.getInstance().schedule(this.machine.transitionTo(InnerEnum.SQUARE));
+        this.machine.poll();
+        assertEquals(InnerEnum.SQUARE, this.machine.currentState().inner());
+
+        SimHooks.stepTiming(1);
+        this.machine.poll();
+
+        assertEquals(MultiStateEnum.A, this.machine.currentState().multiState());
+        assertEquals(BasicEnum.STATE_A, this.machine.currentState().basic());
+        assertEquals(InnerEnum.SQUARE, this.machine.currentState().inner());
+
+        SimHooks.stepTiming(3);
+        this.machine.poll();
+
+        assertEquals(MultiStateEnum.C, this.machine.currentState().multiState());
+    }
+
+    @Test
+    void timeLimitSetUpLaterCanExpireLast() {
+        this.machine.state(MultiStateEnum.A).to(MultiStateEnum.B).transitionAfter(5);
+
+        SimHooks.stepTiming(4);
+        this.machine.poll();
+
+        // This limit is shorter, but it only starts counting now so it runs out after the first one
+        this.machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAfter(2);
+
+        SimHooks.stepTiming(1.5);
+        this.machine.poll();
+
+        assertEquals(MultiStateEnum.B, this.machine.currentState().multiState());
+        assertEquals(BasicEnum.START, this.machine.currentState().basic());
+
+        SimHooks.stepTiming(0.5);
+        this.machine.poll();
+
+        assertEquals(MultiStateEnum.B, this.machine.currentState().multiState());
+        assertEquals(BasicEnum.STATE_A, this.machine.currentState().basic());
+    }
+
     @Test
     void sameTimeWithDifferentTransitionsChoosesTheLargestFromState() {
         // These are two transitions set up separately, but specifying two states in the second qualifier means that one wins
@@ -385,4 +489,40 @@ public class BasicRecordStateMachineTest {
         assertEquals(MultiStateEnum.B, this.machine.currentState().multiState());
         assertEquals(BasicEnum.STATE_A, this.machine.currentState().basic());
     }
+
+    @Test
+    void revisitedStatesReuseTheSameRecord() {
+        this.machine.state(MultiStateEnum.A).to(MultiStateEnum.B).transitionAlways();
+        this.machine.state(MultiStateEnum.B).to(MultiStateEnum.A).transitionAlways();
+
+        this.machine.poll();
+        var firstB = this.machine.currentState();
+        this.machine.poll();
+        var secondA = this.machine.currentState();
+        this.machine.poll();
+
+        assertEquals(new BasicRecord(MultiStateEnum.B, BasicEnum.START, InnerEnum.STAR), firstB);
+        assertSame(firstB, this.machine.currentState());
+
+        this.machine.poll();
+        assertEquals(new BasicRecord(MultiStateEnum.A, BasicEnum.START, InnerEnum.STAR), secondA);
+        assertSame(secondA, this.machine.currentState());
+    }
+
+    @Test
+    void packedStatesTrackEveryField() {
+        // Each of these changes a different field, which are packed into different digits of the same number
+        this.machine.state(MultiStateEnum.A).to(MultiStateEnum.C).transitionAlways();
+        this.machine.state(MultiStateEnum.C, BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+        this.machine.state(BasicEnum.STATE_A, InnerEnum.STAR).to(MultiStateEnum.A, InnerEnum.SQUARE).transitionAlways();
+
+        this.machine.poll();
+        assertEquals(new BasicRecord(MultiStateEnum.C, BasicEnum.START, InnerEnum.STAR), this.machine.currentState());
+
+        this.machine.poll();
+        assertEquals(new BasicRecord(MultiStateEnum.C, BasicEnum.STATE_A, InnerEnum.STAR), this.machine.currentState());
+
+        this.machine.poll();
+        assertEquals(new BasicRecord(MultiStateEnum.A, BasicEnum.STATE_A, InnerEnum.SQUARE), this.machine.currentState());
+    }
 }
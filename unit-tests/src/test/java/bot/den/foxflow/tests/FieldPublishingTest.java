@@ -0,0 +1,75 @@
+package bot.den.foxflow.tests;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.StringSubscriber;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FieldPublishingTest {
+    private PublishedFieldsRecordStateMachine machine;
+    private StringSubscriber multiStateSubscriber;
+    private StringSubscriber basicSubscriber;
+    private StringSubscriber stateSubscriber;
+
+    @BeforeEach
+    public void setup() {
+        assertTrue(HAL.initialize(500, 0));
+
+        this.machine = new PublishedFieldsRecordStateMachine(MultiStateEnum.A, BasicEnum.START);
+
+        var networkTables = NetworkTableInstance.getDefault();
+        this.multiStateSubscriber = networkTables.getStringTopic("FoxFlow/PublishedFieldsRecord/multiState").subscribe("");
+        this.basicSubscriber = networkTables.getStringTopic("FoxFlow/PublishedFieldsRecord/basic").subscribe("");
+        this.stateSubscriber = networkTables.getStringTopic("FoxFlow/PublishedFieldsRecord/State").subscribe("");
+    }
+
+    @AfterEach
+    public void cleanup() {
+        this.multiStateSubscriber.close();
+        this.basicSubscriber.close();
+        this.stateSubscriber.close();
+
+        // This method runs after each test to reset the scheduler state
+        CommandScheduler.getInstance().cancelAll();
+        CommandScheduler.getInstance().run(); // Call run() to execute end() methods
+    }
+
+    @Test
+    void everyFieldIsPublishedInitially() {
+        assertEquals("A", this.multiStateSubscriber.get());
+        assertEquals("START", this.basicSubscriber.get());
+        assertEquals(this.machine.currentState().toString(), this.stateSubscriber.get());
+    }
+
+    @Test
+    void onlyChangedFieldsArePublished() {
+        // Stand in for a value the dashboard already has, so we can tell if it gets written again
+        try (var basicPublisher = NetworkTableInstance.getDefault().getStringTopic("FoxFlow/PublishedFieldsRecord/basic").publish()) {
+            basicPublisher.set("unchanged");
+        }
+
+        this.machine.state(MultiStateEnum.A).to(MultiStateEnum.B).transitionAlways();
+        this.machine.poll();
+
+        assertEquals("B", this.multiStateSubscriber.get());
+        assertEquals("unchanged", this.basicSubscriber.get());
+    }
+
+    @Test
+    void wholeStateIsOnlyPublishedWithMetrics() {
+        var initialState = this.stateSubscriber.get();
+        this.machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+
+        this.machine.poll();
+        assertEquals("STATE_A", this.basicSubscriber.get());
+        assertEquals(initialState, this.stateSubscriber.get());
+
+        this.machine.publishMetrics();
+        assertEquals(this.machine.currentState().toString(), this.stateSubscriber.get());
+    }
+}
@@ -0,0 +1,162 @@
+package bot.den.foxflow.tests;
+
+import bot.den.foxflow.LatencyStats;
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyStatsTest {
+    @BeforeEach
+    public void setup() {
+        assertTrue(HAL.initialize(500, 0));
+    }
+
+    @AfterEach
+    public void cleanup() {
+        // This method runs after each test to reset the scheduler state
+        CommandScheduler.getInstance().cancelAll();
+        CommandScheduler.getInstance().run(); // Call run() to execute end() methods
+    }
+
+    @Test
+    void emptyStatsAreAllZero() {
+        var stats = new LatencyStats();
+
+        assertEquals(0, stats.count());
+        assertEquals(0, stats.minNanos());
+        assertEquals(0, stats.maxNanos());
+        assertEquals(0, stats.meanNanos());
+        assertEquals(0, stats.p99Nanos());
+    }
+
+    @Test
+    void minMeanAndMaxAreExact() {
+        var stats = new LatencyStats();
+
+        stats.record(1_000);
+        stats.record(3_000);
+        stats.record(5_000);
+
+        assertEquals(3, stats.count());
+        assertEquals(1_000, stats.minNanos());
+        assertEquals(3_000, stats.meanNanos());
+        assertEquals(5_000, stats.maxNanos());
+    }
+
+    @Test
+    void p99IsCloseToTheSlowestPercent() {
+        var stats = new LatencyStats();
+
+        // 990 fast polls and 10 slow ones, so the 99th percentile is still a fast poll
+        for (int i = 0; i < 990; i++) {
+            stats.record(10_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            stats.record(2_000_000);
+        }
+
+        long p99 = stats.p99Nanos();
+        assertTrue(p99 >= 10_000, "p99 was " + p99);
+        assertTrue(p99 <= 10_000 * 1.125, "p99 was " + p99);
+
+        // One more slow poll pushes the 99th percentile into the slow group
+        stats.record(2_000_000);
+        p99 = stats.p99Nanos();
+        assertTrue(p99 >= 2_000_000 * 0.875, "p99 was " + p99);
+        assertTrue(p99 <= 2_000_000, "p99 was " + p99);
+    }
+
+    @Test
+    void resetForgetsEverySample() {
+        var stats = new LatencyStats();
+
+        stats.record(1_000);
+        stats.reset();
+
+        assertEquals(0, stats.count());
+        assertEquals(0, stats.maxNanos());
+        assertEquals(0, stats.p99Nanos());
+    }
+
+    @Test
+    void machineRecordsEveryPhase() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START).enableMetrics();
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+
+        machine.poll();
+        machine.poll();
+
+        // Both polls checked for a transition, but only the first one changed state
+        assertEquals(2, machine.pollLatency().count());
+        assertEquals(2, machine.nextStateLatency().count());
+        assertEquals(1, machine.updateStateLatency().count());
+        assertTrue(machine.pollLatency().maxNanos() >= machine.updateStateLatency().maxNanos());
+    }
+
+    @Test
+    void metricsAreOffByDefault() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+
+        machine.poll();
+
+        assertFalse(machine.isMetricsEnabled());
+        assertEquals(0, machine.pollLatency().count());
+        assertEquals(0, machine.updateStateLatency().count());
+    }
+
+    @Test
+    void machinePublishesMetrics() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START).enableMetrics("Intake");
+
+        machine.poll();
+        machine.publishMetrics();
+
+        var count = NetworkTableInstance.getDefault()
+                .getIntegerTopic("FoxFlow/Intake/Metrics/Poll/Count")
+                .subscribe(-1);
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    void everyMachinePublishesMetricsToItsOwnTopics() {
+        var first = new BasicEnumStateMachine(BasicEnum.START).enableMetrics("First");
+        var second = new BasicEnumStateMachine(BasicEnum.START).enableMetrics("Second");
+
+        first.poll();
+        first.poll();
+        second.poll();
+        first.publishMetrics();
+        second.publishMetrics();
+
+        var table = NetworkTableInstance.getDefault().getTable("FoxFlow");
+        assertEquals(2, table.getIntegerTopic("First/Metrics/Poll/Count").subscribe(-1).get());
+        assertEquals(1, table.getIntegerTopic("Second/Metrics/Poll/Count").subscribe(-1).get());
+    }
+
+    @Test
+    void conditionsAreTimedWhileMetricsAreEnabled() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(() -> false);
+
+        machine.poll();
+        assertEquals(0, machine.firedSupplierLatency(0).count());
+
+        machine.enableMetrics("Conditions");
+        machine.poll();
+        machine.poll();
+        machine.publishMetrics();
+
+        assertEquals(2, machine.firedSupplierLatency(0).count());
+
+        var count = NetworkTableInstance.getDefault()
+                .getIntegerTopic("FoxFlow/Conditions/Metrics/Suppliers/0/Count")
+                .subscribe(-1);
+        assertEquals(2, count.get());
+    }
+}
@@ -0,0 +1,142 @@
+package bot.den.foxflow.tests;
+
+import bot.den.foxflow.tests.BasicRecord.InnerEnum;
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Polling is done every robot loop, so a poll that doesn't cause a transition should never create garbage.
+ */
+public class PollAllocationTest {
+    private static final int WARMUP_POLLS = 20_000;
+    private static final int MEASURED_POLLS = 1_000;
+
+    @BeforeEach
+    public void setup() {
+        assertTrue(HAL.initialize(500, 0));
+    }
+
+    @AfterEach
+    public void cleanup() {
+        // This method runs after each test to reset the scheduler state
+        CommandScheduler.getInstance().cancelAll();
+        CommandScheduler.getInstance().run(); // Call run() to execute end() methods
+    }
+
+    @Test
+    void enumPollDoesNotAllocate() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        final AtomicBoolean first = new AtomicBoolean(false);
+        final AtomicBoolean second = new AtomicBoolean(false);
+
+        // A few conditions that stay false, plus a timer that never expires during the test
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(first::get);
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(second::get);
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAfter(1000);
+
+        assertEquals(0, bytesAllocatedWhilePolling(machine::poll));
+        assertEquals(BasicEnum.START, machine.currentState());
+
+        // Make sure the machine still works after all of that
+        first.set(true);
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+    }
+
+    @Test
+    void recordPollDoesNotAllocate() {
+        var machine = new BasicRecordStateMachine(MultiStateEnum.A, BasicEnum.START, InnerEnum.STAR);
+
+        final AtomicBoolean first = new AtomicBoolean(false);
+        final AtomicBoolean second = new AtomicBoolean(false);
+        final AtomicBoolean third = new AtomicBoolean(false);
+
+        machine.state(MultiStateEnum.A).to(MultiStateEnum.B).transitionWhen(first::get);
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(second::get);
+        machine.state(MultiStateEnum.A, InnerEnum.STAR).to(InnerEnum.CIRCLE).transitionWhen(third::get);
+        machine.state(InnerEnum.STAR).to(InnerEnum.SQUARE).transitionAfter(1000);
+
+        assertEquals(0, bytesAllocatedWhilePolling(machine::poll));
+
+        // Both of these transitions have to be merged, which still needs to work with the reused buffers
+        first.set(true);
+        second.set(true);
+        machine.poll();
+
+        var state = machine.currentState();
+        assertEquals(MultiStateEnum.B, state.multiState());
+        assertEquals(BasicEnum.STATE_A, state.basic());
+        assertEquals(InnerEnum.STAR, state.inner());
+    }
+
+    @Test
+    void enumTransitionBetweenVisitedStatesDoesNotAllocate() {
+        var machine = new MultiStateEnumStateMachine(MultiStateEnum.A);
+
+        // MultiStateEnum has no transition limits, so nothing outside FoxFlow allocates here
+        machine.state(MultiStateEnum.A).to(MultiStateEnum.B).transitionAlways();
+        machine.state(MultiStateEnum.B).to(MultiStateEnum.A).transitionAlways();
+
+        long pollBytes = bytesAllocatedWhilePolling(machine::poll);
+        assertTrue(pollBytes < MEASURED_POLLS, "Transitions allocated " + pollBytes + " bytes");
+    }
+
+    @Test
+    void enumWithManyStatesCyclesWithoutAllocating() {
+        var states = ManyStatesEnum.values();
+        var machine = new ManyStatesEnumStateMachine(states[0]);
+
+        // One long loop through every state, so every state is compiled and looked up by its ordinal
+        for (int i = 0; i < states.length; i++) {
+            machine.state(states[i]).to(states[(i + 1) % states.length]).transitionAlways();
+        }
+
+        for (var state : states) {
+            assertEquals(state, machine.currentState());
+            machine.poll();
+        }
+        assertEquals(states[0], machine.currentState());
+
+        long pollBytes = bytesAllocatedWhilePolling(machine::poll);
+        assertTrue(pollBytes < MEASURED_POLLS, "Transitions allocated " + pollBytes + " bytes");
+    }
+
+    @Test
+    void recordTransitionBetweenVisitedStatesDoesNotAllocate() {
+        var machine = new BasicRecordStateMachine(MultiStateEnum.A, BasicEnum.START, InnerEnum.STAR);
+
+        // MultiStateEnum has no transition limits, so nothing outside FoxFlow allocates here
+        machine.state(MultiStateEnum.A).to(MultiStateEnum.B).transitionAlways();
+        machine.state(MultiStateEnum.B).to(MultiStateEnum.A).transitionAlways();
+
+        long pollBytes = bytesAllocatedWhilePolling(machine::poll);
+        assertTrue(pollBytes < MEASURED_POLLS, "Transitions allocated " + pollBytes + " bytes");
+    }
+
+    private static long bytesAllocatedWhilePolling(Runnable poll) {
+        var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        // Give the JIT a chance to settle so we only measure the steady state
+        for (int i = 0; i < WARMUP_POLLS; i++) {
+            poll.run();
+        }
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_POLLS; i++) {
+            poll.run();
+        }
+        long after = threadBean.getThreadAllocatedBytes(threadId);
+
+        return after - before;
+    }
+}
@@ -0,0 +1,95 @@
+package bot.den.foxflow.tests;
+
+import bot.den.foxflow.RobotState;
+import bot.den.foxflow.exceptions.InvalidStateTransition;
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceMaskRecordTest {
+    private PresenceMaskRecordStateMachine machine;
+
+    @BeforeEach
+    public void setup() {
+        assertTrue(HAL.initialize(500, 0));
+
+        DriverStationSim.setEnabled(false);
+        DriverStationSim.setAutonomous(false);
+        DriverStationSim.setTest(false);
+        DriverStationSim.notifyNewData();
+
+        this.machine = new PresenceMaskRecordStateMachine(MultiStateEnum.A, BasicEnum.START);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        // This method runs after each test to reset the scheduler state
+        CommandScheduler.getInstance().cancelAll();
+        CommandScheduler.getInstance().run(); // Call run() to execute end() methods
+    }
+
+    @Test
+    void canTransitionGivenPartialSpecifiers() {
+        this.machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+
+        this.machine.poll();
+
+        assertEquals(new PresenceMaskRecord(MultiStateEnum.A, BasicEnum.STATE_A, RobotState.DISABLED), this.machine.currentState());
+    }
+
+    @Test
+    void transitionsOnDifferentFieldsAreMerged() {
+        this.machine.state(MultiStateEnum.A).to(MultiStateEnum.B).transitionAlways();
+        this.machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+
+        this.machine.poll();
+
+        assertEquals(new PresenceMaskRecord(MultiStateEnum.B, BasicEnum.STATE_A, RobotState.DISABLED), this.machine.currentState());
+    }
+
+    @Test
+    void moreSpecificStatesOnlyMatchWhenEveryFieldMatches() {
+        final AtomicBoolean test = new AtomicBoolean(false);
+
+        this.machine.state(MultiStateEnum.B, BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+        this.machine.state(MultiStateEnum.A).to(MultiStateEnum.B).transitionWhen(test::get);
+
+        this.machine.poll();
+        assertEquals(BasicEnum.START, this.machine.currentState().basic());
+
+        test.set(true);
+        this.machine.poll();
+        assertEquals(MultiStateEnum.B, this.machine.currentState().multiState());
+        assertEquals(BasicEnum.START, this.machine.currentState().basic());
+
+        this.machine.poll();
+        assertEquals(BasicEnum.STATE_A, this.machine.currentState().basic());
+    }
+
+    @Test
+    void invalidTransitionsStillThrow() {
+        assertThrows(InvalidStateTransition.class, () -> this.machine.state(BasicEnum.START).to(BasicEnum.END));
+    }
+
+    @Test
+    void robotStateIsTracked() {
+        this.machine.state(RobotState.TELEOP).to(MultiStateEnum.C).transitionAlways();
+
+        DriverStationSim.setEnabled(true);
+        DriverStationSim.setDsAttached(true);
+        DriverStationSim.notifyNewData();
+
+        this.machine.poll();
+        assertEquals(RobotState.TELEOP, this.machine.currentState().robotState());
+
+        this.machine.poll();
+        assertEquals(MultiStateEnum.C, this.machine.currentState().multiState());
+    }
+}
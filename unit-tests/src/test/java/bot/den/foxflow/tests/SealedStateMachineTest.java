@@ -0,0 +1,183 @@
+package bot.den.foxflow.tests;
+
+import bot.den.foxflow.exceptions.InvalidStateTransition;
+import bot.den.foxflow.exceptions.StateMachineSealed;
+import bot.den.foxflow.tests.BasicRecord.InnerEnum;
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.event.EventLoop;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import edu.wpi.first.wpilibj2.command.Commands;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SealedStateMachineTest {
+    @BeforeEach
+    public void setup() {
+        assertTrue(HAL.initialize(500, 0));
+    }
+
+    @AfterEach
+    public void cleanup() {
+        // This method runs after each test to reset the scheduler state
+        CommandScheduler.getInstance().cancelAll();
+        CommandScheduler.getInstance().run(); // Call run() to execute end() methods
+    }
+
+    @Test
+    void sealedEnumMachineBehavesTheSame() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        final AtomicBoolean condition = new AtomicBoolean(false);
+        final AtomicBoolean commandRan = new AtomicBoolean(false);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(condition::get);
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).run(Commands.runOnce(() -> commandRan.set(true)).ignoringDisable(true));
+        machine.state(BasicEnum.STATE_A).to(BasicEnum.STATE_B).transitionAlways();
+
+        assertFalse(machine.isSealed());
+        machine.seal();
+        assertTrue(machine.isSealed());
+
+        machine.poll();
+        assertEquals(BasicEnum.START, machine.currentState());
+
+        condition.set(true);
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+
+        CommandScheduler.getInstance().run();
+        assertTrue(commandRan.get());
+
+        machine.poll();
+        assertEquals(BasicEnum.STATE_B, machine.currentState());
+    }
+
+    @Test
+    void sealedMachineKeepsItsTimers() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+        machine.state(BasicEnum.STATE_A).to(BasicEnum.START).transitionAfter(0.1);
+        machine.seal();
+
+        // Go around the loop twice to make sure the reused compiled states still work
+        for (int i = 0; i < 2; i++) {
+            machine.poll();
+            assertEquals(BasicEnum.STATE_A, machine.currentState());
+
+            machine.poll();
+            assertEquals(BasicEnum.STATE_A, machine.currentState());
+
+            SimHooks.stepTiming(0.2);
+            machine.poll();
+            assertEquals(BasicEnum.START, machine.currentState());
+        }
+    }
+
+    @Test
+    void setupIsRejectedAfterSealing() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START).seal();
+
+        var transition = machine.state(BasicEnum.START).to(BasicEnum.STATE_A);
+
+        assertThrows(StateMachineSealed.class, transition::transitionAlways);
+        assertThrows(StateMachineSealed.class, () -> transition.transitionWhen(() -> true, 5));
+        assertThrows(StateMachineSealed.class, () -> transition.transitionAfter(1));
+        assertThrows(StateMachineSealed.class, () -> transition.run(Commands.none()));
+        assertThrows(StateMachineSealed.class, transition::failLoudly);
+    }
+
+    @Test
+    void onlyTransitionsSetUpBeforeSealingCanBeSignalled() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+        var eventLoop = new EventLoop();
+
+        final AtomicBoolean condition = new AtomicBoolean(false);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionOn(eventLoop, condition::get);
+        machine.seal();
+
+        // This transition was never set up, so signalling it would have to change the sealed setup
+        var transition = machine.state(BasicEnum.STATE_A).to(BasicEnum.STATE_B);
+        assertThrows(StateMachineSealed.class, transition::signal);
+        assertThrows(StateMachineSealed.class, () -> transition.transitionOn(eventLoop, () -> true));
+
+        condition.set(true);
+        eventLoop.poll();
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+    }
+
+    @Test
+    void sealingTwiceDoesNothing() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+
+        assertSame(machine, machine.seal());
+        assertSame(machine, machine.seal());
+
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState());
+    }
+
+    @Test
+    void transitionThatAlwaysFailsLoudlyIsCaughtWhenSealing() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).failLoudly();
+
+        assertThrows(InvalidStateTransition.class, machine::seal);
+        assertFalse(machine.isSealed());
+    }
+
+    @Test
+    void signalledTransitionThatFailsLoudlyIsCaughtWhenSealing() {
+        var machine = new BasicEnumStateMachine(BasicEnum.START);
+        var eventLoop = new EventLoop();
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionOn(eventLoop, () -> false);
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).failLoudly();
+
+        assertThrows(InvalidStateTransition.class, machine::seal);
+        assertFalse(machine.isSealed());
+    }
+
+    @Test
+    void sealedRecordMachineStillMergesTransitions() {
+        var machine = new BasicRecordStateMachine(MultiStateEnum.A, BasicEnum.START, InnerEnum.STAR);
+
+        machine.state(MultiStateEnum.A).to(MultiStateEnum.B).transitionAlways();
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+        machine.seal();
+
+        machine.poll();
+
+        var state = machine.currentState();
+        assertEquals(MultiStateEnum.B, state.multiState());
+        assertEquals(BasicEnum.STATE_A, state.basic());
+        assertEquals(InnerEnum.STAR, state.inner());
+    }
+
+    @Test
+    void triggersCanStillBeCreatedAfterSealing() {
+        var machine = new BasicRecordStateMachine(MultiStateEnum.A, BasicEnum.START, InnerEnum.STAR);
+
+        machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+        machine.seal();
+
+        // This enables a new part of the record after the machine was compiled
+        var trigger = machine.state(InnerEnum.STAR).trigger();
+        assertTrue(trigger.getAsBoolean());
+
+        machine.poll();
+        assertEquals(BasicEnum.STATE_A, machine.currentState().basic());
+        assertTrue(trigger.getAsBoolean());
+    }
+}
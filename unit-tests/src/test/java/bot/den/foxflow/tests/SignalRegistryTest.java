@@ -0,0 +1,213 @@
+package bot.den.foxflow.tests;
+
+import bot.den.foxflow.Clock;
+import bot.den.foxflow.SignalRegistry;
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static edu.wpi.first.units.Units.Milliseconds;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SignalRegistryTest {
+    private final SignalRegistry registry = SignalRegistry.getDefault();
+
+    @BeforeEach
+    public void setup() {
+        assertTrue(HAL.initialize(500, 0));
+
+        // Time stands still unless a test moves it, so a slow test run can't make a tick expire
+        registry.useClock(() -> 0);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        // The default registry is shared by every test, so go back to evaluating conditions on every read
+        registry.reset();
+        registry.useClock(Clock.fpga());
+
+        // This method runs after each test to reset the scheduler state
+        CommandScheduler.getInstance().cancelAll();
+        CommandScheduler.getInstance().run(); // Call run() to execute end() methods
+    }
+
+    @Test
+    void sharedConditionIsEvaluatedOncePerTick() {
+        final AtomicInteger evaluations = new AtomicInteger(0);
+        BooleanSupplier condition = () -> {
+            evaluations.incrementAndGet();
+            return false;
+        };
+
+        var signal = registry.register(condition);
+
+        var first = new BasicEnumStateMachine(BasicEnum.START);
+        var second = new BasicEnumStateMachine(BasicEnum.START);
+        var third = new BasicEnumStateMachine(BasicEnum.START);
+
+        // The same condition on three different machines
+        first.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(signal);
+        second.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(signal);
+        third.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(signal);
+
+        registry.refresh();
+        first.poll();
+        second.poll();
+        third.poll();
+        assertEquals(1, evaluations.get());
+
+        // A new tick evaluates the condition again, but still only once
+        registry.refresh();
+        first.poll();
+        second.poll();
+        third.poll();
+        assertEquals(2, evaluations.get());
+
+        assertEquals(2, signal.evaluations());
+        assertSame(signal, registry.register(condition));
+    }
+
+    @Test
+    void unregisteredConditionsAreNotShared() {
+        final AtomicInteger evaluations = new AtomicInteger(0);
+        BooleanSupplier condition = () -> {
+            evaluations.incrementAndGet();
+            return false;
+        };
+
+        var first = new BasicEnumStateMachine(BasicEnum.START);
+        var second = new BasicEnumStateMachine(BasicEnum.START);
+
+        first.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(condition);
+        second.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(condition);
+
+        // Each machine evaluates the condition itself, and the registry never hears about it
+        registry.refresh();
+        first.poll();
+        second.poll();
+        assertEquals(2, evaluations.get());
+        assertTrue(registry.signals().isEmpty());
+    }
+
+    @Test
+    void evaluationsAreOnlyTimedWithStatisticsEnabled() {
+        var signal = registry.register(() -> false);
+
+        signal.getAsBoolean();
+        assertEquals(1, signal.evaluations());
+        assertEquals(0, signal.totalNanos());
+
+        registry.setStatisticsEnabled(true);
+        try {
+            signal.getAsBoolean();
+            assertEquals(2, signal.evaluations());
+            assertTrue(signal.maxNanos() >= 0);
+            assertEquals((double) signal.totalNanos(), signal.averageNanos());
+        } finally {
+            registry.setStatisticsEnabled(false);
+        }
+    }
+
+    @Test
+    void resetForgetsEverySignal() {
+        BooleanSupplier condition = () -> false;
+        var signal = registry.register(condition);
+        assertEquals(1, registry.signals().size());
+
+        registry.reset();
+        assertTrue(registry.signals().isEmpty());
+        assertNotSame(signal, registry.register(condition));
+
+        registry.unregister(condition);
+        assertTrue(registry.signals().isEmpty());
+    }
+
+    @Test
+    void conditionsAreEvaluatedOnEveryReadUntilRefreshed() {
+        final AtomicInteger evaluations = new AtomicInteger(0);
+        BooleanSupplier condition = () -> {
+            evaluations.incrementAndGet();
+            return false;
+        };
+
+        var signal = registry.register(condition);
+
+        var first = new BasicEnumStateMachine(BasicEnum.START);
+        var second = new BasicEnumStateMachine(BasicEnum.START);
+
+        first.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(signal);
+        second.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(signal);
+
+        first.poll();
+        second.poll();
+        assertEquals(2, evaluations.get());
+    }
+
+    @Test
+    void cachedValueIsSharedWithinATick() {
+        final AtomicBoolean condition = new AtomicBoolean(false);
+        var supplier = registry.register(condition::get);
+
+        var first = new BasicEnumStateMachine(BasicEnum.START);
+        var second = new BasicEnumStateMachine(BasicEnum.START);
+
+        first.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(supplier);
+        second.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(supplier);
+
+        registry.refresh();
+        first.poll();
+
+        // The value already read this tick is used, even though the condition has changed since
+        condition.set(true);
+        second.poll();
+        assertEquals(BasicEnum.START, second.currentState());
+
+        // Both machines see the new value on the next tick
+        registry.refresh();
+        first.poll();
+        second.poll();
+        assertEquals(BasicEnum.STATE_A, first.currentState());
+        assertEquals(BasicEnum.STATE_A, second.currentState());
+    }
+
+    @Test
+    void conditionsAreEvaluatedOnEveryReadOnceRefreshingStops() {
+        var registry = new SignalRegistry();
+        var now = new AtomicLong(0);
+        registry.useClock(now::get);
+        registry.setLoopPeriod(Milliseconds.of(20));
+
+        final AtomicInteger evaluations = new AtomicInteger(0);
+        var signal = registry.register(() -> {
+            evaluations.incrementAndGet();
+            return false;
+        });
+
+        registry.refresh();
+        signal.getAsBoolean();
+        signal.getAsBoolean();
+        assertEquals(1, evaluations.get());
+        assertFalse(registry.isStale());
+
+        // Nothing refreshed the registry for longer than a loop, so the cached value can't be trusted anymore
+        now.addAndGet(20_001);
+        assertTrue(registry.isStale());
+        signal.getAsBoolean();
+        signal.getAsBoolean();
+        assertEquals(3, evaluations.get());
+
+        // Refreshing again turns caching back on
+        registry.refresh();
+        assertFalse(registry.isStale());
+        signal.getAsBoolean();
+        signal.getAsBoolean();
+        assertEquals(4, evaluations.get());
+    }
+}
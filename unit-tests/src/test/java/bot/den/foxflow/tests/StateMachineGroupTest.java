@@ -0,0 +1,164 @@
+package bot.den.foxflow.tests;
+
+import bot.den.foxflow.RobotState;
+import bot.den.foxflow.SignalRegistry;
+import bot.den.foxflow.StateMachineGroup;
+import bot.den.foxflow.exceptions.CircularPollDependency;
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StateMachineGroupTest {
+    @BeforeEach
+    public void setup() {
+        assertTrue(HAL.initialize(500, 0));
+    }
+
+    @AfterEach
+    public void cleanup() {
+        // This method runs after each test to reset the scheduler state
+        CommandScheduler.getInstance().cancelAll();
+        CommandScheduler.getInstance().run(); // Call run() to execute end() methods
+    }
+
+    @Test
+    void machinesArePolledAfterTheirDependencies() {
+        var leader = new BasicEnumStateMachine(BasicEnum.START);
+        var follower = new BasicEnumStateMachine(BasicEnum.START);
+
+        leader.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+        follower.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(() -> leader.currentState() == BasicEnum.STATE_A);
+
+        // The follower is added first, but it still has to wait for the leader
+        var group = new StateMachineGroup()
+                .add(follower, leader)
+                .add(leader);
+
+        assertEquals(List.of(leader, follower), group.pollOrder());
+
+        group.poll();
+
+        assertEquals(BasicEnum.STATE_A, leader.currentState());
+        assertEquals(BasicEnum.STATE_A, follower.currentState());
+    }
+
+    @Test
+    void independentMachinesKeepTheirRegistrationOrder() {
+        var first = new BasicEnumStateMachine(BasicEnum.START);
+        var second = new BasicEnumStateMachine(BasicEnum.START);
+        var third = new BasicEnumStateMachine(BasicEnum.START);
+
+        var group = new StateMachineGroup()
+                .add(first)
+                .add(second)
+                .add(third);
+
+        assertEquals(List.of(first, second, third), group.pollOrder());
+    }
+
+    @Test
+    void circularDependenciesAreRejected() {
+        var first = new BasicEnumStateMachine(BasicEnum.START);
+        var second = new BasicEnumStateMachine(BasicEnum.START);
+
+        var group = new StateMachineGroup()
+                .add(first, second)
+                .add(second, first);
+
+        assertThrows(CircularPollDependency.class, group::poll);
+    }
+
+    @Test
+    void dependenciesHaveToBeInTheGroup() {
+        var first = new BasicEnumStateMachine(BasicEnum.START);
+        var second = new BasicEnumStateMachine(BasicEnum.START);
+
+        var group = new StateMachineGroup()
+                .add(first, second);
+
+        assertThrows(IllegalArgumentException.class, group::poll);
+    }
+
+    @Test
+    void robotStateMachinesUseTheSharedControlWord() {
+        var machine = new RobotRecordStateMachine(MultiStateEnum.A);
+        var group = new StateMachineGroup().add(machine);
+
+        DriverStationSim.setAutonomous(true);
+        DriverStationSim.setTest(false);
+        DriverStationSim.setEnabled(true);
+        DriverStationSim.setDsAttached(true);
+        DriverStationSim.notifyNewData();
+
+        group.poll();
+        assertEquals(RobotState.AUTO, machine.currentState().robotState());
+
+        DriverStationSim.setEnabled(false);
+        DriverStationSim.setAutonomous(false);
+        DriverStationSim.notifyNewData();
+
+        group.poll();
+        assertEquals(RobotState.DISABLED, machine.currentState().robotState());
+    }
+
+    @Test
+    void groupOnlyTicksItsOwnRegistry() {
+        final AtomicInteger groupEvaluations = new AtomicInteger(0);
+        final AtomicInteger standaloneEvaluations = new AtomicInteger(0);
+
+        var first = new BasicEnumStateMachine(BasicEnum.START);
+        var second = new BasicEnumStateMachine(BasicEnum.START);
+        var standalone = new BasicEnumStateMachine(BasicEnum.START);
+
+        var group = new StateMachineGroup()
+                .add(first)
+                .add(second);
+
+        var groupSignal = group.signalRegistry().register(() -> {
+            groupEvaluations.incrementAndGet();
+            return false;
+        });
+        first.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(groupSignal);
+        second.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(groupSignal);
+
+        var standaloneSignal = new SignalRegistry().register(() -> {
+            standaloneEvaluations.incrementAndGet();
+            return false;
+        });
+        standalone.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionWhen(standaloneSignal);
+
+        // The group's signal is shared by both of its machines
+        group.poll();
+        assertEquals(1, groupEvaluations.get());
+
+        // The other registry was never refreshed, so a machine outside the group still reads its condition every time
+        standalone.poll();
+        standalone.poll();
+        assertEquals(2, standaloneEvaluations.get());
+    }
+
+    @Test
+    void pollTimeIsReported() {
+        var first = new BasicEnumStateMachine(BasicEnum.START);
+        var second = new BasicEnumStateMachine(BasicEnum.START);
+
+        var group = new StateMachineGroup()
+                .add(first)
+                .add(second);
+
+        group.poll();
+
+        assertTrue(group.lastPollNanos(first) >= 0);
+        assertTrue(group.lastPollNanos(second) >= 0);
+        assertTrue(group.lastTotalPollNanos() >= group.lastPollNanos(first) + group.lastPollNanos(second));
+        assertThrows(IllegalArgumentException.class, () -> group.lastPollNanos(new BasicEnumStateMachine(BasicEnum.START)));
+    }
+}
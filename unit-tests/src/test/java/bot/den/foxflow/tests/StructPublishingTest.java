@@ -0,0 +1,72 @@
+package bot.den.foxflow.tests;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.RawSubscriber;
+import edu.wpi.first.networktables.StringSubscriber;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StructPublishingTest {
+    private StructRecordStateMachine machine;
+    private RawSubscriber structSubscriber;
+    private StringSubscriber stringSubscriber;
+
+    @BeforeEach
+    public void setup() {
+        assertTrue(HAL.initialize(500, 0));
+
+        this.machine = new StructRecordStateMachine(MultiStateEnum.B, BasicEnum.START);
+
+        var networkTables = NetworkTableInstance.getDefault();
+        this.structSubscriber = networkTables
+                .getRawTopic("FoxFlow/StructRecord/StateStruct")
+                .subscribe("struct:StructRecord", new byte[0]);
+        this.stringSubscriber = networkTables
+                .getStringTopic("FoxFlow/StructRecord/State")
+                .subscribe("");
+    }
+
+    @AfterEach
+    public void cleanup() {
+        this.structSubscriber.close();
+        this.stringSubscriber.close();
+
+        // This method runs after each test to reset the scheduler state
+        CommandScheduler.getInstance().cancelAll();
+        CommandScheduler.getInstance().run(); // Call run() to execute end() methods
+    }
+
+    @Test
+    void initialStateIsPublishedBothWays() {
+        // One ordinal per field, in the order the fields are declared
+        assertArrayEquals(new byte[]{1, 0}, this.structSubscriber.get());
+        assertEquals(this.machine.currentState().toString(), this.stringSubscriber.get());
+    }
+
+    @Test
+    void structIsPublishedOnEveryTransition() {
+        this.machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+        this.machine.state(MultiStateEnum.B).to(MultiStateEnum.C).transitionAlways();
+
+        this.machine.poll();
+
+        assertArrayEquals(new byte[]{2, 1}, this.structSubscriber.get());
+    }
+
+    @Test
+    void stringIsOnlyPublishedWithMetrics() {
+        var initialString = this.stringSubscriber.get();
+        this.machine.state(BasicEnum.START).to(BasicEnum.STATE_A).transitionAlways();
+
+        this.machine.poll();
+        assertEquals(initialString, this.stringSubscriber.get());
+
+        this.machine.publishMetrics();
+        assertEquals(new StructRecord(MultiStateEnum.B, BasicEnum.STATE_A).toString(), this.stringSubscriber.get());
+    }
+}